@@ -17,6 +17,7 @@
 */
 package org.wso2.carbon.connector;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 
@@ -28,21 +29,39 @@ import org.apache.commons.vfs2.FileObject;
 import org.apache.commons.vfs2.FileSystemException;
 import org.apache.commons.vfs2.FileSystemOptions;
 import org.apache.commons.vfs2.impl.StandardFileSystemManager;
+import org.apache.synapse.ManagedLifecycle;
 import org.apache.synapse.MessageContext;
 
 import org.apache.synapse.SynapseException;
+import org.apache.synapse.core.SynapseEnvironment;
 import org.wso2.carbon.connector.core.AbstractConnector;
 import org.wso2.carbon.connector.core.util.ConnectorUtils;
+import org.wso2.carbon.connector.util.AppendHandle;
+import org.wso2.carbon.connector.util.BufferedAppender;
 import org.wso2.carbon.connector.util.FileConnectorUtils;
 import org.wso2.carbon.connector.util.FileConstants;
 import org.wso2.carbon.connector.util.ResultPayloadCreator;
+import org.wso2.carbon.connector.util.RollingPolicy;
 
 /**
  * This class is used to append file content.
  */
-public class FileAppendConnector extends AbstractConnector {
+public class FileAppendConnector extends AbstractConnector implements ManagedLifecycle {
 	private static final Log log = LogFactory.getLog(FileAppendConnector.class);
 
+	@Override
+	public void init(SynapseEnvironment synapseEnvironment) {
+	}
+
+	/**
+	 * Flush the buffered appends when the connector is undeployed.
+	 */
+	@Override
+	public void destroy() {
+		BufferedAppender.flushAll();
+		AppendHandle.closeAll();
+	}
+
 	/**
 	 * Initiate the appendFile method.
 	 *
@@ -72,7 +91,42 @@ public class FileAppendConnector extends AbstractConnector {
 		if (StringUtils.isEmpty(encoding)) {
 			encoding = FileConstants.DEFAULT_ENCODING;
 		}
+		boolean useMessageBody =
+				FileConnectorUtils.getBooleanParameter(messageContext, FileConstants.USE_MESSAGE_BODY, false);
 		FileSystemOptions opts = FileConnectorUtils.init(messageContext);
+		RollingPolicy policy = getRollingPolicy(messageContext);
+		if (FileConnectorUtils.getBooleanParameter(messageContext, FileConstants.BUFFERED_APPEND, false)) {
+			try {
+				int flushSize = FileConnectorUtils.getIntParameter(messageContext, FileConstants.FLUSH_SIZE,
+				                                                   FileConstants.DEFAULT_FLUSH_SIZE);
+				int flushInterval = FileConnectorUtils.getIntParameter(messageContext, FileConstants.FLUSH_INTERVAL,
+				                                                       FileConstants.DEFAULT_FLUSH_INTERVAL);
+				boolean waitForFlush =
+						FileConnectorUtils.getBooleanParameter(messageContext, FileConstants.WAIT_FOR_FLUSH, false);
+				BufferedAppender.append(destination, opts,
+				                        getContent(messageContext, content, encoding, useMessageBody), policy,
+				                        flushSize, flushInterval, waitForFlush);
+			} catch (IOException e) {
+				throw new SynapseException("Error while appending content", e);
+			}
+			if (log.isDebugEnabled()) {
+				log.debug("Content buffered for appending. " + destination);
+			}
+			return true;
+		}
+		if (policy != null) {
+			try {
+				byte[] bytes = getContent(messageContext, content, encoding, useMessageBody);
+				// The active segment is kept open across calls
+				AppendHandle.append(destination, opts, policy, bytes, 0, bytes.length);
+			} catch (IOException e) {
+				throw new SynapseException("Error while appending content", e);
+			}
+			if (log.isDebugEnabled()) {
+				log.debug("File appending completed. " + destination);
+			}
+			return true;
+		}
 		OutputStream out = null;
 		FileObject fileObj = null;
 		StandardFileSystemManager manager = FileConnectorUtils.getManager();
@@ -83,7 +137,12 @@ public class FileAppendConnector extends AbstractConnector {
 			}
 			// True, if the content should be appended.
 			out = fileObj.getContent().getOutputStream(true);
-			IOUtils.write(content, out, encoding);
+			if (useMessageBody) {
+				// Serialize the body straight into the file instead of going through a String
+				FileConnectorUtils.writeMessageBody(messageContext, out);
+			} else {
+				IOUtils.write(content, out, encoding);
+			}
 			if (log.isDebugEnabled()) {
 				log.debug("File appending completed. " + destination);
 			}
@@ -111,4 +170,43 @@ public class FileAppendConnector extends AbstractConnector {
 		}
 		return true;
 	}
+
+	/**
+	 * Get the content to append as bytes, for the modes that keep the content in memory.
+	 *
+	 * @param messageContext The message context that is generated for processing the file.
+	 * @param content        The content given as the template parameter.
+	 * @param encoding       Encoding of the content.
+	 * @param useMessageBody Whether to append the message body instead of the content.
+	 * @return The content to append.
+	 * @throws IOException On error encoding the content or serializing the message body.
+	 */
+	private byte[] getContent(MessageContext messageContext, String content, String encoding, boolean useMessageBody)
+			throws IOException {
+		if (!useMessageBody) {
+			return content.getBytes(encoding);
+		}
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		FileConnectorUtils.writeMessageBody(messageContext, out);
+		return out.toByteArray();
+	}
+
+	/**
+	 * Create the rolling policy from the template parameters.
+	 *
+	 * @param messageContext The message context that is generated for processing the file.
+	 * @return The rolling policy, or null if neither a roll size nor a roll interval is set.
+	 */
+	private RollingPolicy getRollingPolicy(MessageContext messageContext) {
+		long rollSize = FileConnectorUtils.getLongParameter(messageContext, FileConstants.ROLL_SIZE, 0);
+		long rollInterval = FileConnectorUtils.getLongParameter(messageContext, FileConstants.ROLL_INTERVAL, 0);
+		if (rollSize == 0 && rollInterval == 0) {
+			return null;
+		}
+		String namePattern =
+				(String) ConnectorUtils.lookupTemplateParamater(messageContext, FileConstants.ROLL_FILE_PATTERN);
+		return new RollingPolicy(rollSize, rollInterval * 60 * 1000, namePattern,
+		                         FileConnectorUtils.getBooleanParameter(messageContext, FileConstants.COMPRESS_ROLLED,
+		                                                                false));
+	}
 }
\ No newline at end of file
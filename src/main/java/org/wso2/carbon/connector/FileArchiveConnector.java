@@ -19,10 +19,16 @@ package org.wso2.carbon.connector;
 
 import java.io.*;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipOutputStream;
+import java.util.Locale;
+import java.util.Set;
 
+import org.apache.commons.compress.archivers.ArchiveOutputStream;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.apache.commons.lang.StringUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.commons.vfs2.*;
@@ -38,7 +44,6 @@ import org.wso2.carbon.connector.util.*;
  */
 public class FileArchiveConnector extends AbstractConnector {
 	private static final Log log = LogFactory.getLog(FileArchiveConnector.class);
-	private final byte[] bytes = new byte[FileConstants.BUFFER_SIZE];
 
 	/**
 	 * Initiate the fileCompress method.
@@ -66,60 +71,41 @@ public class FileArchiveConnector extends AbstractConnector {
 				(String) ConnectorUtils.lookupTemplateParamater(messageContext, FileConstants.NEW_FILE_LOCATION);
 		StandardFileSystemManager manager = FileConnectorUtils.getManager();
 		FileSystemOptions opts = FileConnectorUtils.init(messageContext);
-		FileObject fileObj = manager.resolveFile(source, opts);
-		FileObject destObj = manager.resolveFile(destination, opts);
-		if (!fileObj.exists()) {
-			log.error("The File location does not exist.");
-			return false;
-		}
-		if (FileType.FOLDER.equals(fileObj.getType())) {
+		try {
+			FileObject fileObj = manager.resolveFile(source, opts);
+			FileObject destObj = manager.resolveFile(destination, opts);
+			if (!fileObj.exists()) {
+				log.error("The File location does not exist.");
+				return false;
+			}
+			ZipArchiveBuilder builder = new ZipArchiveBuilder(
+					opts, FileConnectorUtils.getIntParameter(messageContext, FileConstants.PARALLELISM, 1),
+					FileConnectorUtils.getCompressionLevel(messageContext));
+			builder.setPrefetch(FileConnectorUtils.getIntParameter(messageContext, FileConstants.PREFETCH_COUNT, 0),
+			                    FileConnectorUtils.getIntParameter(messageContext, FileConstants.PREFETCH_BUFFER_SIZE,
+			                                                       FileConstants.DEFAULT_PREFETCH_BUFFER_SIZE));
+			builder.setStorePolicy(getStoreExtensions(messageContext), FileConnectorUtils.getBooleanParameter(
+					messageContext, FileConstants.DETECT_INCOMPRESSIBLE, false));
+			String format = ArchiveStreams.getFormat(destObj.getName().getBaseName(), (String) ConnectorUtils
+					.lookupTemplateParamater(messageContext, FileConstants.ARCHIVE_FORMAT));
+			FileObject root = fileObj;
 			List<FileObject> fileList = new ArrayList<>();
-			addAllFilesToList(fileObj, fileList);
-			writeZipFiles(fileObj, destObj, fileList);
-		} else {
-			ZipOutputStream outputStream = null;
-			InputStream fileIn = null;
-			try {
-				outputStream = new ZipOutputStream(destObj.getContent().getOutputStream());
-				fileIn = fileObj.getContent().getInputStream();
-				ZipEntry zipEntry = new ZipEntry(fileObj.getName().getBaseName());
-				outputStream.putNextEntry(zipEntry);
-				int length;
-				while ((length = fileIn.read(bytes)) != -1) {
-					outputStream.write(bytes, 0, length);
-				}
-			} catch (IOException e) {
-				throw new SynapseException("Error while writing an array of bytes to the ZipOutputStream", e);
-			} finally {
-				try {
-					// close the file object
-					fileObj.close();
-				}catch (FileSystemException e){
-					log.error("Error while closing the source FileObject", e);
-				}
-				try {
-					// close the file object
-					destObj.close();
-				}catch (FileSystemException e){
-					log.error("Error while closing the destination FileObject", e);
-				}
-				try {
-					if (outputStream != null) {
-						outputStream.close();
-					}
-				} catch (IOException e) {
-					log.error("Error while closing ZipOutputStream", e);
-				}
-				try {
-					if (fileIn != null) {
-						fileIn.close();
-					}
-				} catch (IOException e) {
-					log.error("Error while closing InputStream:", e);
-				}
-				// close the StandardFileSystemManager
-				manager.close();
+			if (FileType.FOLDER.equals(fileObj.getType())) {
+				addAllFilesToList(fileObj, fileList);
+			} else {
+				// The entry of a single file is named after the file, relative to its parent
+				root = fileObj.getParent();
+				fileList = Collections.singletonList(fileObj);
+			}
+			if (FileConnectorUtils.getBooleanParameter(messageContext, FileConstants.APPEND, false)
+			    && destObj.exists()) {
+				appendZipFiles(root, destObj, fileList, builder, format);
+			} else {
+				writeZipFiles(root, destObj, fileList, builder, format);
 			}
+		} finally {
+			// close the StandardFileSystemManager
+			manager.close();
 		}
 		if (log.isDebugEnabled()) {
 			log.debug("File archiving completed." + destination);
@@ -127,6 +113,24 @@ public class FileArchiveConnector extends AbstractConnector {
 		return true;
 	}
 
+	/**
+	 * Read the extensions of the files that are stored without compression.
+	 *
+	 * @param messageContext The message context that is generated for processing the file.
+	 * @return The lower case extensions, without the leading dot.
+	 */
+	private Set<String> getStoreExtensions(MessageContext messageContext) {
+		String value = (String) ConnectorUtils.lookupTemplateParamater(messageContext, FileConstants.STORE_EXTENSIONS);
+		Set<String> extensions = new HashSet<>();
+		for (String extension : StringUtils.split(StringUtils.defaultString(value), ',')) {
+			extension = StringUtils.removeStart(extension.trim(), ".").toLowerCase(Locale.ENGLISH);
+			if (!extension.isEmpty()) {
+				extensions.add(extension);
+			}
+		}
+		return extensions;
+	}
+
 	/**
 	 * Add the all files into List.
 	 *
@@ -154,76 +158,85 @@ public class FileArchiveConnector extends AbstractConnector {
 	}
 
 	/**
-	 * Extract all files to add the zip directory.
+	 * Add the files to an existing zip archive, without rewriting the entries that are already in it.
 	 *
-	 * @param fileObj        Source fileObject.
-	 * @param directoryToZip Destination fileObject.
-	 * @param fileList       List of files to be compressed.
-	 * @throws FileSystemException When get the OutputStream, get file type.
+	 * @param fileObj  Source fileObject.
+	 * @param archive  The existing archive.
+	 * @param fileList List of files to be compressed.
+	 * @param builder  Builder holding the compression level.
+	 * @param format   Format of the archive, which has to be zip.
+	 * @throws FileSystemException On error getting the file type.
 	 */
-	private void writeZipFiles(FileObject fileObj, FileObject directoryToZip, List<FileObject> fileList)
-			throws FileSystemException {
-		ZipOutputStream zos = null;
+	private void appendZipFiles(FileObject fileObj, FileObject archive, List<FileObject> fileList,
+	                            ZipArchiveBuilder builder, String format) throws FileSystemException {
+		if (!FileConstants.FORMAT_ZIP.equals(format)) {
+			throw new SynapseException("Only zip archives can be appended to, not " + format);
+		}
 		try {
-			zos = new ZipOutputStream(directoryToZip.getContent().getOutputStream());
+			List<FileObject> files = new ArrayList<>();
 			for (FileObject file : fileList) {
 				if (FileType.FILE.equals(file.getType())) {
-					addToZip(fileObj, file, zos);
+					files.add(file);
 				}
 			}
-		} catch (FileSystemException e) {
-			throw new SynapseException("Error occurs in writing files", e);
+			new ZipAppender(builder.getCompressionLevel()).append(archive, fileObj, files);
+		} catch (IOException e) {
+			throw new SynapseException("Error while appending to the archive", e);
 		} finally {
-			try {
-				if (zos != null) {
-					zos.close();
-				}
-			} catch (IOException e) {
-				log.error("Error while closing the ZipOutputStream");
-			}
 			try {
 				fileObj.close();
-				directoryToZip.close();
-			}catch (FileSystemException e){
+				archive.close();
+			} catch (FileSystemException e) {
 				log.error("Error while closing the FileObject", e);
 			}
 		}
 	}
 
 	/**
-	 * Add the file to zip directory.
+	 * Extract all files to add the zip directory.
 	 *
-	 * @param fileObject   The fileObject where zip entry data needs to be written.
-	 * @param file         The fileObject which needs to be archived.
-	 * @param outputStream ZipOutputStream.
+	 * @param fileObj        Source fileObject.
+	 * @param directoryToZip Destination fileObject.
+	 * @param fileList       List of files to be compressed.
+	 * @param builder        Builder that writes the entries of a zip archive.
+	 * @param format         Format of the archive, zip, tar, tar.gz or tar.bz2.
+	 * @throws FileSystemException When get the OutputStream, get file type.
 	 */
-	private void addToZip(FileObject fileObject, FileObject file, ZipOutputStream outputStream) {
-		InputStream fin = null;
+	private void writeZipFiles(FileObject fileObj, FileObject directoryToZip, List<FileObject> fileList,
+	                           ZipArchiveBuilder builder, String format) throws FileSystemException {
+		ArchiveOutputStream zos = null;
 		try {
-			fin = file.getContent().getInputStream();
-			String name = file.getName().toString();
-			String entry = name.substring(fileObject.getName().toString().length() + 1, name.length());
-			ZipEntry zipEntry = new ZipEntry(entry);
-			outputStream.putNextEntry(zipEntry);
-			int length;
-			while ((length = fin.read(bytes)) != -1) {
-				outputStream.write(bytes, 0, length);
+			List<FileObject> files = new ArrayList<>();
+			for (FileObject file : fileList) {
+				if (FileType.FILE.equals(file.getType())) {
+					files.add(file);
+				}
+			}
+			OutputStream out = directoryToZip.getContent().getOutputStream();
+			if (FileConstants.FORMAT_ZIP.equals(format)) {
+				ZipArchiveOutputStream zip = new ZipArchiveOutputStream(out);
+				zos = zip;
+				builder.write(fileObj, files, zip);
+			} else {
+				TarArchiveOutputStream tar = ArchiveStreams.openTarOutput(out, format, builder.getCompressionLevel());
+				zos = tar;
+				ArchiveStreams.writeTar(fileObj, files, tar);
 			}
+			zos.finish();
 		} catch (IOException e) {
-			throw new SynapseException("Unable to write an array of bytes to the ZIP entry data", e);
+			throw new SynapseException("Error occurs in writing files", e);
 		} finally {
 			try {
-				outputStream.closeEntry();
-				if (fin != null) {
-					fin.close();
+				if (zos != null) {
+					zos.close();
 				}
 			} catch (IOException e) {
-				log.error("Error while closing InputStream", e);
+				log.error("Error while closing the ArchiveOutputStream", e);
 			}
 			try {
-				fileObject.close();
-				file.close();
-			} catch (FileSystemException e) {
+				fileObj.close();
+				directoryToZip.close();
+			}catch (FileSystemException e){
 				log.error("Error while closing the FileObject", e);
 			}
 		}
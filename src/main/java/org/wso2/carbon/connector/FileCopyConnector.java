@@ -30,7 +30,9 @@ import org.wso2.carbon.connector.core.util.ConnectorUtils;
 import org.wso2.carbon.connector.util.FileConnectorUtils;
 import org.wso2.carbon.connector.util.FileConstants;
 import org.wso2.carbon.connector.util.FilePattenMatcher;
+import org.wso2.carbon.connector.util.PipelinedTransfer;
 import org.wso2.carbon.connector.util.ResultPayloadCreator;
+import org.wso2.carbon.connector.util.SegmentedFileTransfer;
 
 import java.io.File;
 import java.io.IOException;
@@ -71,6 +73,12 @@ public class FileCopyConnector extends AbstractConnector {
 		if (StringUtils.isNotEmpty(includeParentDir)) {
 			includeParentDirectory = Boolean.parseBoolean(includeParentDir);
 		}
+		SegmentedFileTransfer segmentedTransfer = null;
+		if (FileConnectorUtils.getBooleanParameter(messageContext, FileConstants.SEGMENTED_TRANSFER, false)) {
+			segmentedTransfer = new SegmentedFileTransfer(opts, FileConnectorUtils
+					.getIntParameter(messageContext, FileConstants.SEGMENT_COUNT, FileConstants.DEFAULT_SEGMENT_COUNT));
+		}
+		PipelinedTransfer pipelinedTransfer = FileConnectorUtils.getPipelinedTransfer(messageContext);
 		boolean resultStatus = false;
 		StandardFileSystemManager manager = FileConnectorUtils.getManager();
 		FileObject souFile = null;
@@ -86,7 +94,7 @@ public class FileCopyConnector extends AbstractConnector {
 				FileObject[] children = souFile.getChildren();
 				for (FileObject child : children) {
 					if (FileType.FILE.equals(child.getType())) {
-						copy(child, destination, filePattern, opts, manager);
+						copy(child, destination, filePattern, opts, manager, segmentedTransfer, pipelinedTransfer);
 					} else if (FileType.FOLDER.equals(child.getType())) {
 						String newSource = source + File.separator + child.getName().getBaseName();
 						copyFile(newSource, messageContext, opts);
@@ -96,14 +104,14 @@ public class FileCopyConnector extends AbstractConnector {
 				if (FileType.FILE.equals(souFile.getType())) {
 					String name = souFile.getName().getBaseName();
 					FileObject outFile = manager.resolveFile(destination + File.separator + name, opts);
-					outFile.copyFrom(souFile, Selectors.SELECT_ALL);
+					copyContent(souFile, outFile, segmentedTransfer, pipelinedTransfer);
 				} else if (FileType.FOLDER.equals(souFile.getType())) {
 					if (includeParentDirectory) {
 						destFile = manager.resolveFile(destination + File.separator + souFile.getName().getBaseName(),
 						                               opts);
 						destFile.createFolder();
 					}
-					destFile.copyFrom(souFile, Selectors.SELECT_ALL);
+					copyContent(souFile, destFile, null, pipelinedTransfer);
 				}
 				if (log.isDebugEnabled()) {
 					log.debug("File copying completed from " + source + "to" + destination);
@@ -126,17 +134,49 @@ public class FileCopyConnector extends AbstractConnector {
 	/**
 	 * copy the file for given pattern.
 	 *
-	 * @param source      The source file object.
-	 * @param destination The target file location.
-	 * @param filePattern Pattern of the file.
-	 * @param opts        Configured file system.
+	 * @param source            The source file object.
+	 * @param destination       The target file location.
+	 * @param filePattern       Pattern of the file.
+	 * @param opts              Configured file system.
+	 * @param manager           Standard file system manager.
+	 * @param segmentedTransfer Segmented transfer to use for remote to local copies, or null if disabled.
+	 * @param pipelinedTransfer Pipelined transfer engine to use for copies between different hosts.
 	 */
 	private void copy(FileObject source, String destination, String filePattern, FileSystemOptions opts,
-	                  StandardFileSystemManager manager) throws FileSystemException {
+	                  StandardFileSystemManager manager, SegmentedFileTransfer segmentedTransfer,
+	                  PipelinedTransfer pipelinedTransfer) throws FileSystemException {
 		FilePattenMatcher patternMatcher = new FilePattenMatcher(filePattern);
 		if (patternMatcher.validate(source.getName().getBaseName())) {
 			String name = source.getName().getBaseName();
 			FileObject outFile = manager.resolveFile(destination + File.separator + name, opts);
+			copyContent(source, outFile, segmentedTransfer, pipelinedTransfer);
+		}
+	}
+
+	/**
+	 * Copy a file/folder. A remote file copied to the local file system is fetched in parallel segments when
+	 * segmented transfer is enabled, and copies between different hosts go through the pipelined transfer engine
+	 * so that reading the source and writing the destination overlap.
+	 *
+	 * @param source            The source file object.
+	 * @param outFile           The target file object.
+	 * @param segmentedTransfer Segmented transfer to use for remote to local copies, or null if disabled.
+	 * @param pipelinedTransfer Pipelined transfer engine to use for copies between different hosts.
+	 * @throws FileSystemException On error copying the file.
+	 */
+	private void copyContent(FileObject source, FileObject outFile, SegmentedFileTransfer segmentedTransfer,
+	                         PipelinedTransfer pipelinedTransfer) throws FileSystemException {
+		if (segmentedTransfer != null && FileType.FILE.equals(source.getType()) && !FileConnectorUtils.isLocal(source)
+		    && FileConnectorUtils.isLocal(outFile)) {
+			segmentedTransfer.download(source.getName().getURI(), FileConnectorUtils.toLocalFile(outFile));
+		} else if (!FileConnectorUtils.isSameHost(source, outFile)) {
+			try {
+				pipelinedTransfer.copy(source, outFile);
+			} catch (IOException e) {
+				throw new SynapseException("Unable to copy " + source.getName().getFriendlyURI() + " to "
+				                           + outFile.getName().getFriendlyURI(), e);
+			}
+		} else {
 			outFile.copyFrom(source, Selectors.SELECT_ALL);
 		}
 	}
@@ -72,21 +72,31 @@ public class FileCreateConnector extends AbstractConnector {
 		if (FileConnectorUtils.isFolder(sourceFile)) {
 			sourceFile.createFolder();
 		} else {
-			if (StringUtils.isEmpty(content)) {
+			boolean useMessageBody =
+					FileConnectorUtils.getBooleanParameter(messageContext, FileConstants.USE_MESSAGE_BODY, false);
+			if (!useMessageBody && StringUtils.isEmpty(content)) {
 				sourceFile.createFile();
 			} else {
-				OutputStream out = sourceFile.getContent().getOutputStream();
+				String compression =
+						(String) ConnectorUtils.lookupTemplateParamater(messageContext, FileConstants.COMPRESSION);
+				OutputStream out = null;
 				try {
-					IOUtils.write(content, out, encoding);
+					// Fail on an unsupported compression before the file is opened and truncated
+					FileConnectorUtils.checkCompression(compression);
+					out = sourceFile.getContent().getOutputStream();
+					out = FileConnectorUtils.compress(out, compression);
+					if (useMessageBody) {
+						// Serialize the body straight into the file instead of going through a String
+						FileConnectorUtils.writeMessageBody(messageContext, out);
+					} else {
+						IOUtils.write(content, out, encoding);
+					}
+					// Closing finishes the compressed content, so it has to happen before the file is closed
+					out.close();
+					out = null;
 				} catch (IOException e) {
 					throw new SynapseException("Error while writing the file content", e);
 				} finally {
-					try {
-						// close the file object
-						sourceFile.close();
-					} catch (FileSystemException e) {
-						log.error("Error while closing FileObject", e);
-					}
 					try {
 						if (out != null) {
 							out.close();
@@ -94,6 +104,12 @@ public class FileCreateConnector extends AbstractConnector {
 					} catch (IOException e) {
 						log.error("Error while closing OutputStream", e);
 					}
+					try {
+						// close the file object
+						sourceFile.close();
+					} catch (FileSystemException e) {
+						log.error("Error while closing FileObject", e);
+					}
 					// close the StandardFileSystemManager
 					manager.close();
 				}
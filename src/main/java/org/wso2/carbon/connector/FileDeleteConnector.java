@@ -18,7 +18,16 @@
 package org.wso2.carbon.connector;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import org.apache.axiom.om.OMAbstractFactory;
+import org.apache.axiom.om.OMElement;
+import org.apache.axiom.om.OMFactory;
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -30,6 +39,8 @@ import org.wso2.carbon.connector.core.AbstractConnector;
 import org.wso2.carbon.connector.core.util.ConnectorUtils;
 import org.wso2.carbon.connector.util.FileConnectorUtils;
 import org.wso2.carbon.connector.util.FileConstants;
+import org.wso2.carbon.connector.util.FilePattenMatcher;
+import org.wso2.carbon.connector.util.ParallelFileExecutor;
 import org.wso2.carbon.connector.util.ResultPayloadCreator;
 
 /**
@@ -44,34 +55,48 @@ public class FileDeleteConnector extends AbstractConnector {
 	 * @param messageContext TThe message context that is used in file delete mediation flow.
 	 */
 	public void connect(MessageContext messageContext) {
-		ResultPayloadCreator.generateResult(messageContext, deleteFile(messageContext));
+		ResultPayloadCreator.preparePayload(messageContext, deleteFile(messageContext));
 	}
 
 	/**
 	 * Delete an existing file/folder.
 	 *
 	 * @param messageContext The message context that is generated for processing the file.
-	 * @return true, if the file/folder is successfully deleted.
+	 * @return The result element, holding the number of deleted files in parallel mode.
 	 */
-	private boolean deleteFile(MessageContext messageContext) {
+	private OMElement deleteFile(MessageContext messageContext) {
 		String source = (String) ConnectorUtils.lookupTemplateParamater(messageContext, FileConstants.FILE_LOCATION);
 		StandardFileSystemManager manager = FileConnectorUtils.getManager();
 		FileObject remoteFile = null;
+		OMElement result = ResultPayloadCreator.createResult(true);
 		try {
+			FileSystemOptions opts = FileConnectorUtils.init(messageContext);
 			// create remote fileObject
-			 remoteFile = manager.resolveFile(source, FileConnectorUtils.init(messageContext));
+			 remoteFile = manager.resolveFile(source, opts);
 			if (!remoteFile.exists()) {
 				log.error("The file does not exist.");
-				return false;
+				return ResultPayloadCreator.createResult(false);
 			}
-			if (FileType.FILE.equals(remoteFile.getType())) {
+			String filePattern =
+					(String) ConnectorUtils.lookupTemplateParamater(messageContext, FileConstants.FILE_PATTERN);
+			if (StringUtils.isEmpty(filePattern) || "*".equals(filePattern)) {
+				filePattern = null;
+			}
+			if (FileType.FOLDER.equals(remoteFile.getType()) &&
+			    FileConnectorUtils.getBooleanParameter(messageContext, FileConstants.PARALLEL_DELETE, false)) {
+				int parallelism = FileConnectorUtils
+						.getIntParameter(messageContext, FileConstants.PARALLELISM, FileConstants.DEFAULT_PARALLELISM);
+				int filesDeleted = deleteInParallel(remoteFile, filePattern, parallelism, opts);
+				OMFactory factory = OMAbstractFactory.getOMFactory();
+				OMElement filesDeletedElement = factory.createOMElement(FileConstants.FILES_DELETED, factory
+						.createOMNamespace(FileConstants.FILECON, FileConstants.NAMESPACE));
+				filesDeletedElement.setText(String.valueOf(filesDeleted));
+				result.addChild(filesDeletedElement);
+			} else if (FileType.FILE.equals(remoteFile.getType())) {
 				// delete a file
 				remoteFile.delete();
 			} else if (FileType.FOLDER.equals(remoteFile.getType())) {
-				String filePattern =
-						(String) ConnectorUtils.lookupTemplateParamater(messageContext, FileConstants.FILE_PATTERN);
-
-				if (StringUtils.isNotEmpty(filePattern) && !"*".equals(filePattern)) {
+				if (filePattern != null) {
 					FileObject[] children = remoteFile.getChildren();
 					for (FileObject child : children) {
 						if (child.getName().getBaseName().matches(filePattern)) {
@@ -100,6 +125,95 @@ public class FileDeleteConnector extends AbstractConnector {
 				log.error("Error while closing the FileObject", e);
 			}
 		}
-		return true;
+		return result;
+	}
+
+	/**
+	 * Delete a folder tree in parallel. The tree is listed level by level, files are deleted in batches across the
+	 * workers and, when no pattern is given, the folders are then removed bottom-up. The same workers run all the
+	 * steps, so every worker logs in once and keeps its session for the whole tree.
+	 *
+	 * @param remoteFile  The folder to delete.
+	 * @param filePattern Pattern of the files to delete at any depth, or null to delete the whole tree.
+	 * @param parallelism Number of workers (sessions) to use.
+	 * @param opts        Configured file system options.
+	 * @return Number of files deleted.
+	 */
+	private int deleteInParallel(FileObject remoteFile, String filePattern, int parallelism,
+	                             final FileSystemOptions opts) {
+		final FilePattenMatcher patternMatcher = filePattern == null ? null : new FilePattenMatcher(filePattern);
+		ParallelFileExecutor executor = new ParallelFileExecutor(parallelism);
+		try {
+			final Queue<String> files = new ConcurrentLinkedQueue<>();
+			List<List<String>> levels = new ArrayList<>();
+			List<String> level = Collections.singletonList(remoteFile.getName().getURI());
+			// Walk the tree concurrently, one level at a time
+			while (!level.isEmpty()) {
+				levels.add(level);
+				final Queue<String> subFolders = new ConcurrentLinkedQueue<>();
+				executor.run(level, new ParallelFileExecutor.Task<String>() {
+					@Override
+					public void execute(String folder, StandardFileSystemManager manager) throws IOException {
+						FileObject folderObject = manager.resolveFile(folder, opts);
+						try {
+							for (FileObject child : folderObject.getChildren()) {
+								if (FileType.FOLDER.equals(child.getType())) {
+									subFolders.add(child.getName().getURI());
+								} else if (patternMatcher == null ||
+								           patternMatcher.validate(child.getName().getBaseName())) {
+									files.add(child.getName().getURI());
+								}
+							}
+						} finally {
+							folderObject.close();
+						}
+					}
+				});
+				level = new ArrayList<>(subFolders);
+			}
+			final AtomicInteger filesDeleted = new AtomicInteger();
+			ParallelFileExecutor.Task<List<String>> deleteBatch = new ParallelFileExecutor.Task<List<String>>() {
+				@Override
+				public void execute(List<String> batch, StandardFileSystemManager manager) throws IOException {
+					for (String file : batch) {
+						if (manager.resolveFile(file, opts).delete()) {
+							filesDeleted.incrementAndGet();
+						}
+					}
+				}
+			};
+			executor.run(partition(new ArrayList<>(files)), deleteBatch);
+			if (patternMatcher == null) {
+				// Remove the folders bottom-up, every folder of a level is empty once the deeper levels are gone
+				for (int i = levels.size() - 1; i >= 0; i--) {
+					executor.run(levels.get(i), new ParallelFileExecutor.Task<String>() {
+						@Override
+						public void execute(String folder, StandardFileSystemManager manager) throws IOException {
+							manager.resolveFile(folder, opts).delete();
+						}
+					});
+				}
+			}
+			if (log.isDebugEnabled()) {
+				log.debug("Deleted " + filesDeleted.get() + " files from " + remoteFile.getName().getFriendlyURI());
+			}
+			return filesDeleted.get();
+		} finally {
+			executor.close();
+		}
+	}
+
+	/**
+	 * Split the files into batches, so that each worker deletes many files per task.
+	 *
+	 * @param files The files to split.
+	 * @return The batches of files.
+	 */
+	private List<List<String>> partition(List<String> files) {
+		List<List<String>> batches = new ArrayList<>();
+		for (int i = 0; i < files.size(); i += FileConstants.DELETE_BATCH_SIZE) {
+			batches.add(files.subList(i, Math.min(files.size(), i + FileConstants.DELETE_BATCH_SIZE)));
+		}
+		return batches;
 	}
 }
\ No newline at end of file
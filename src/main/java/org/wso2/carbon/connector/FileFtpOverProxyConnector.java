@@ -18,32 +18,49 @@
 
 package org.wso2.carbon.connector;
 
+import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.commons.net.ftp.FTP;
 import org.apache.commons.net.ftp.FTPClient;
-import org.apache.commons.net.ftp.FTPConnectionClosedException;
 import org.apache.commons.net.ftp.FTPHTTPClient;
 import org.apache.commons.net.ftp.FTPReply;
+import org.apache.synapse.ManagedLifecycle;
 import org.apache.synapse.MessageContext;
 import org.apache.synapse.SynapseException;
+import org.apache.synapse.core.SynapseEnvironment;
 import org.wso2.carbon.connector.core.AbstractConnector;
 import org.wso2.carbon.connector.core.Connector;
 import org.wso2.carbon.connector.core.util.ConnectorUtils;
+import org.wso2.carbon.connector.util.FileConnectorUtils;
 import org.wso2.carbon.connector.util.FileConstants;
+import org.wso2.carbon.connector.util.FtpClientPool;
 import org.wso2.carbon.connector.util.ResultPayloadCreator;
 
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.List;
 
 /**
  * This class is used to tunnel FTP client over an HTTP proxy connection.
  */
-public class FileFtpOverProxyConnector extends AbstractConnector {
+public class FileFtpOverProxyConnector extends AbstractConnector implements ManagedLifecycle {
 	private static final Log log = LogFactory.getLog(FileFtpOverProxyConnector.class);
 
+	@Override
+	public void init(SynapseEnvironment synapseEnvironment) {
+	}
+
+	/**
+	 * Disconnect the pooled FTP clients when the connector is undeployed.
+	 */
+	@Override
+	public void destroy() {
+		FtpClientPool.closeAll();
+	}
+
 	/**
 	 * Initiate the ftpOverHttpProxy method.
 	 *
@@ -101,39 +118,25 @@ public class FileFtpOverProxyConnector extends AbstractConnector {
 			activeModeParameter = Boolean.parseBoolean(activeMode);
 		}
 
-		InputStream inputStream = null;
-		FTPClient ftp = new FTPClient();
-		if (StringUtils.isNotEmpty(proxyHost) && StringUtils.isNotEmpty(proxyPort) &&
-		    StringUtils.isNotEmpty(proxyUsername) && StringUtils.isNotEmpty(proxyPassword)) {
-			ftp = new FTPHTTPClient(proxyHost, Integer.parseInt(proxyPort), proxyUsername, proxyPassword);
-		}
-		//Set the time to wait between sending control connection keep alive messages when processing file upload or
-		// download (Zero (or less) disables).
-		ftp.setControlKeepAliveTimeout(Long.parseLong(keepAliveTimeout));
-		//Set how long to wait for control keep-alive message replies.(defaults to 1000 milliseconds.)
-		ftp.setControlKeepAliveReplyTimeout(Integer.parseInt(controlKeepAliveReplyTimeout));
+		boolean pooling =
+				FileConnectorUtils.getBooleanParameter(messageContext, FileConstants.CONNECTION_POOLING, true);
+		List<String> key = Arrays.asList(proxyHost, proxyPort, proxyUsername, proxyPassword, ftpHost, ftpPort,
+		                                 ftpUsername, ftpPassword);
+		FtpClientPool.PooledClient pooledClient = pooling ? FtpClientPool.borrow(key) : null;
+		boolean reusable = false;
 		try {
-			int reply;
-			int IntFtpPort = Integer.parseInt(ftpPort);
-			if (IntFtpPort > 0) {
-				ftp.connect(ftpHost, IntFtpPort);
-			} else {
-				ftp.connect(ftpHost);
-			}
-			if (log.isDebugEnabled()) {
-				log.debug(" Connected to " + ftpHost + " on " + (IntFtpPort > 0 ? ftpPort : ftp.getDefaultPort()));
-			}
-			// After connection attempt, should check the reply code to verify success.
-			reply = ftp.getReplyCode();
-			if (!FTPReply.isPositiveCompletion(reply)) {
-				ftp.disconnect();
-				log.error("FTP ftpServer refused connection.");
+			if (pooledClient == null) {
+				pooledClient = new FtpClientPool.PooledClient(key, login(proxyHost, proxyPort, proxyUsername,
+				                                                         proxyPassword, ftpHost, ftpPort,
+				                                                         ftpUsername, ftpPassword));
 			}
-			if (!ftp.login(ftpUsername, ftpPassword)) {
-				ftp.logout();
-				throw new SynapseException("Error while login ftp server.");
-			}
-			setFileType(fileType, ftp);
+			FTPClient ftp = pooledClient.getClient();
+			//Set the time to wait between sending control connection keep alive messages when processing file upload
+			// or download (Zero (or less) disables).
+			ftp.setControlKeepAliveTimeout(Long.parseLong(keepAliveTimeout));
+			//Set how long to wait for control keep-alive message replies.(defaults to 1000 milliseconds.)
+			ftp.setControlKeepAliveReplyTimeout(Integer.parseInt(controlKeepAliveReplyTimeout));
+			setFileType(fileType, pooledClient);
 
 			// Use passive mode as default because most of us are behind firewalls these days.
 			if (activeModeParameter) {
@@ -141,50 +144,109 @@ public class FileFtpOverProxyConnector extends AbstractConnector {
 			} else {
 				ftp.enterLocalPassiveMode();
 			}
-			inputStream = new ByteArrayInputStream(messageContext.getEnvelope().getBody().getFirstElement().toString()
-			                                                     .getBytes());
 			if (StringUtils.isNotEmpty(targetPath)) {
-				ftp.changeWorkingDirectory(targetPath);
-				ftp.storeFile(targetFile, inputStream);
+				pooledClient.changeWorkingDirectory(targetPath);
+				storeBody(messageContext, ftp, targetFile);
 				if (log.isDebugEnabled()) {
 					log.debug("Successfully FTP server transferred the File");
 				}
 			}
-			// check that control connection is working
-			if (log.isDebugEnabled()) {
-				log.debug("The code received from the server." + ftp.noop());
-			}
+			// A client is only reused once its last command completed
+			reusable = pooling && FTPReply.isPositiveCompletion(ftp.getReplyCode());
 		} catch (IOException e) {
 			throw new SynapseException("Could not connect to FTP Server", e);
 		} finally {
-			if (ftp.isConnected()) {
-				try {
-					ftp.disconnect();
-					ftp.logout();
-				} catch (IOException f) {
-					log.error("Error while disconnecting/logging out ftp server");
-				}
-			}
-			if (inputStream != null) {
-				try {
-					inputStream.close();
-				} catch (IOException f) {
-					log.error("Error while closing inputStream");
+			if (pooledClient != null) {
+				if (reusable) {
+					FtpClientPool.release(pooledClient, FileConnectorUtils.getLongParameter(
+							messageContext, FileConstants.IDLE_TIMEOUT, FileConstants.DEFAULT_IDLE_TIMEOUT));
+				} else {
+					pooledClient.disconnect();
 				}
 			}
 		}
 		return true;
 	}
 
+	/**
+	 * Upload the message body to the server. The body is written to the data connection as it is serialized, so the
+	 * payload is never built up in memory as a string or byte array.
+	 *
+	 * @param messageContext The message context that is generated for processing the file.
+	 * @param ftp            The logged in FTP client, in the target folder.
+	 * @param targetFile     The name of the file to store.
+	 * @throws IOException If an I/O error occurs while writing the body or receiving the reply from the server.
+	 */
+	private void storeBody(MessageContext messageContext, FTPClient ftp, String targetFile) throws IOException {
+		OutputStream out = ftp.storeFileStream(targetFile);
+		if (out == null) {
+			throw new SynapseException("FTP server refused to store " + targetFile + ": " + ftp.getReplyString());
+		}
+		try {
+			FileConnectorUtils.writeMessageBody(messageContext, out);
+		} finally {
+			IOUtils.closeQuietly(out);
+		}
+		if (!ftp.completePendingCommand()) {
+			throw new SynapseException("Could not store " + targetFile + ": " + ftp.getReplyString());
+		}
+	}
+
+	/**
+	 * Connect to the FTP server, through the HTTP proxy if one is configured, and log in.
+	 *
+	 * @param proxyHost     The proxy host name, or empty to connect directly.
+	 * @param proxyPort     The port number of the proxy.
+	 * @param proxyUsername Username of the proxy.
+	 * @param proxyPassword Password of the proxy.
+	 * @param ftpHost       The FTP server name.
+	 * @param ftpPort       The port number of the FTP server, 0 or less for the default port.
+	 * @param ftpUsername   Username of the FTP server.
+	 * @param ftpPassword   Password of the FTP server.
+	 * @return The logged in client.
+	 * @throws IOException If an I/O error occurs while connecting or logging in.
+	 */
+	private FTPClient login(String proxyHost, String proxyPort, String proxyUsername, String proxyPassword,
+	                        String ftpHost, String ftpPort, String ftpUsername, String ftpPassword)
+			throws IOException {
+		FTPClient ftp = new FTPClient();
+		if (StringUtils.isNotEmpty(proxyHost) && StringUtils.isNotEmpty(proxyPort) &&
+		    StringUtils.isNotEmpty(proxyUsername) && StringUtils.isNotEmpty(proxyPassword)) {
+			ftp = new FTPHTTPClient(proxyHost, Integer.parseInt(proxyPort), proxyUsername, proxyPassword);
+		}
+		int reply;
+		int IntFtpPort = Integer.parseInt(ftpPort);
+		if (IntFtpPort > 0) {
+			ftp.connect(ftpHost, IntFtpPort);
+		} else {
+			ftp.connect(ftpHost);
+		}
+		if (log.isDebugEnabled()) {
+			log.debug(" Connected to " + ftpHost + " on " + (IntFtpPort > 0 ? ftpPort : ftp.getDefaultPort()));
+		}
+		// After connection attempt, should check the reply code to verify success.
+		reply = ftp.getReplyCode();
+		if (!FTPReply.isPositiveCompletion(reply)) {
+			ftp.disconnect();
+			throw new SynapseException("FTP ftpServer refused connection.");
+		}
+		if (!ftp.login(ftpUsername, ftpPassword)) {
+			ftp.logout();
+			ftp.disconnect();
+			throw new SynapseException("Error while login ftp server.");
+		}
+		return ftp;
+	}
+
 	/**
 	 * Set the file type to be transferred.
 	 *
 	 * @param fileType The type of the file.
-	 * @param ftp The FTPClient which is used to transfer the file.
+	 * @param ftp The pooled FTPClient which is used to transfer the file.
 	 * @throws IOException If an I/O error occurs while either sending a command to the server or receiving a reply
 	 * from the server.
 	 */
-	private void setFileType(String fileType, FTPClient ftp) throws IOException {
+	private void setFileType(String fileType, FtpClientPool.PooledClient ftp) throws IOException {
 		switch (fileType) {
 			case "BINARY":
 				ftp.setFileType(FTP.BINARY_FILE_TYPE);
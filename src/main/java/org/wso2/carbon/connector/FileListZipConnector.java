@@ -22,25 +22,36 @@ import org.apache.axiom.om.OMAbstractFactory;
 import org.apache.axiom.om.OMElement;
 import org.apache.axiom.om.OMFactory;
 import org.apache.axiom.om.OMNamespace;
+import org.apache.commons.compress.archivers.ArchiveEntry;
+import org.apache.commons.compress.archivers.ArchiveInputStream;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.io.IOUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.apache.commons.vfs2.Capability;
 import org.apache.commons.vfs2.FileObject;
 import org.apache.commons.vfs2.FileSystemException;
+import org.apache.commons.vfs2.RandomAccessContent;
 import org.apache.commons.vfs2.impl.StandardFileSystemManager;
+import org.apache.commons.vfs2.util.RandomAccessMode;
 import org.apache.synapse.MessageContext;
 import org.apache.synapse.SynapseException;
 import org.wso2.carbon.connector.core.AbstractConnector;
 import org.wso2.carbon.connector.core.util.ConnectorUtils;
+import org.wso2.carbon.connector.util.ArchiveStreams;
+import org.wso2.carbon.connector.util.DecompressionBudget;
 import org.wso2.carbon.connector.util.FileConnectorUtils;
 import org.wso2.carbon.connector.util.FileConstants;
 import org.wso2.carbon.connector.util.ResultPayloadCreator;
+import org.wso2.carbon.connector.util.ZipCentralDirectory;
 
 import java.io.*;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipInputStream;
+import java.text.SimpleDateFormat;
+import java.util.Date;
 
 /**
- * This class is used to listAllFiles all the files inside zip file file content.
+ * This class is used to listAllFiles all the files inside zip file file content. Tar, tar.gz and tar.bz2 archives
+ * are listed as well. Zip archives that support random access are listed from their central directory only.
  */
 public class FileListZipConnector extends AbstractConnector {
 	private static final Log log = LogFactory.getLog(FileListZipConnector.class);
@@ -70,29 +81,20 @@ public class FileListZipConnector extends AbstractConnector {
 		if (!remoteFile.exists()) {
 			log.error("Zip file location does not exist.");
 		}
-		// open the zip file
-		InputStream input = remoteFile.getContent().getInputStream();
-		ZipInputStream zip = new ZipInputStream(input);
+		String format = ArchiveStreams.getFormat(remoteFile.getName().getBaseName(), (String) ConnectorUtils
+				.lookupTemplateParamater(messageContext, FileConstants.ARCHIVE_FORMAT));
 		OMFactory factory = OMAbstractFactory.getOMFactory();
 		OMNamespace ns = factory.createOMNamespace(FileConstants.FILECON, FileConstants.NAMESPACE);
 		OMElement result = factory.createOMElement(FileConstants.RESULT, ns);
-		ZipEntry zipEntry;
+		DecompressionBudget budget = DecompressionBudget.create(messageContext);
 		try {
-			while ((zipEntry = zip.getNextEntry()) != null && !zipEntry.isDirectory()) {
-				// add the entries
-				String outputResult = zipEntry.getName();
-				OMElement messageElement = factory.createOMElement(FileConstants.FILE, ns);
-				messageElement.setText(outputResult);
-				result.addChild(messageElement);
+			if (FileConstants.FORMAT_ZIP.equals(format)
+			    && remoteFile.getFileSystem().hasCapability(Capability.RANDOM_ACCESS_READ)) {
+				listCentralDirectory(remoteFile, budget, factory, ns, result);
+			} else {
+				listStream(remoteFile, format, budget, factory, ns, result);
 			}
-		} catch (IOException e) {
-			throw new SynapseException("Error while reading the next ZIP file entry", e);
 		} finally {
-			try {
-				zip.close();
-			} catch (IOException e) {
-				log.error("Error while closing ZipInputStream");
-			}
 			try {
 				remoteFile.close();
 			} catch (FileSystemException e) {
@@ -107,4 +109,124 @@ public class FileListZipConnector extends AbstractConnector {
 					toString());
 		}
 	}
+
+	/**
+	 * List the files of a zip archive from its central directory, so only the end of the archive is read.
+	 *
+	 * @param archive The zip archive.
+	 * @param budget  Limits of the archive. Nothing is decompressed, so the sizes are checked as declared.
+	 * @param factory The OM factory.
+	 * @param ns      The connector namespace.
+	 * @param result  The element the files are added to.
+	 * @throws FileSystemException On error opening the archive.
+	 */
+	private void listCentralDirectory(FileObject archive, DecompressionBudget budget, OMFactory factory,
+	                                  OMNamespace ns, OMElement result) throws FileSystemException {
+		RandomAccessContent content = archive.getContent().getRandomAccessContent(RandomAccessMode.READ);
+		try {
+			long declaredSize = 0;
+			for (ZipCentralDirectory.Entry entry : ZipCentralDirectory.read(content).getEntries()) {
+				budget.addEntry(entry.getName());
+				if (!entry.isDirectory()) {
+					declaredSize += entry.getSize();
+					budget.checkDeclaredSize(declaredSize);
+					addFile(factory, ns, result, entry.getName(), entry.getSize(), entry.getCompressedSize(),
+					        entry.getCrc(), entry.getTime());
+				}
+			}
+		} catch (IOException e) {
+			throw new SynapseException("Error while reading the central directory", e);
+		} finally {
+			try {
+				content.close();
+			} catch (IOException e) {
+				log.error("Error while closing the RandomAccessContent", e);
+			}
+		}
+	}
+
+	/**
+	 * List the files of an archive by reading it entry by entry. Tar archives have no CRC and no compressed size,
+	 * and zip entries followed by a data descriptor only have them once their content has been read. The content of
+	 * the entries is read through the budget, so an archive that inflates too far is stopped while it is listed.
+	 *
+	 * @param archive The archive.
+	 * @param format  Format of the archive.
+	 * @param budget  Limits of the archive, checked while the archive is read.
+	 * @param factory The OM factory.
+	 * @param ns      The connector namespace.
+	 * @param result  The element the files are added to.
+	 * @throws FileSystemException On error opening the archive.
+	 */
+	private void listStream(FileObject archive, String format, DecompressionBudget budget, OMFactory factory,
+	                        OMNamespace ns, OMElement result) throws FileSystemException {
+		// open the archive
+		InputStream input = archive.getContent().getInputStream();
+		ArchiveInputStream zip = null;
+		ArchiveEntry zipEntry;
+		try {
+			zip = ArchiveStreams.openInput(budget.countCompressed(input), format, budget);
+			while ((zipEntry = zip.getNextEntry()) != null) {
+				budget.addEntry(zipEntry.getName());
+				if (zipEntry.isDirectory()) {
+					continue;
+				}
+				if (zipEntry instanceof ZipArchiveEntry && zip.canReadEntryData(zipEntry)) {
+					// Skip the content through the budget, the tar stream is already counted as a whole
+					IOUtils.skip(budget.countUncompressed(zip), Long.MAX_VALUE);
+				}
+				long compressedSize = -1;
+				long crc = -1;
+				if (zipEntry instanceof ZipArchiveEntry) {
+					compressedSize = ((ZipArchiveEntry) zipEntry).getCompressedSize();
+					crc = ((ZipArchiveEntry) zipEntry).getCrc();
+				}
+				// add the entries
+				addFile(factory, ns, result, zipEntry.getName(), zipEntry.getSize(), compressedSize, crc,
+				        zipEntry.getLastModifiedDate().getTime());
+			}
+		} catch (IOException e) {
+			throw new SynapseException("Error while reading the next archive entry", e);
+		} finally {
+			try {
+				if (zip != null) {
+					zip.close();
+				} else {
+					input.close();
+				}
+			} catch (IOException e) {
+				log.error("Error while closing ArchiveInputStream");
+			}
+		}
+	}
+
+	/**
+	 * Add a file element with the entry name as its text and the known metadata as attributes.
+	 *
+	 * @param factory        The OM factory.
+	 * @param ns             The connector namespace.
+	 * @param result         The element the file is added to.
+	 * @param name           Name of the entry.
+	 * @param size           Uncompressed size, or -1 if unknown.
+	 * @param compressedSize Compressed size, or -1 if unknown.
+	 * @param crc            CRC-32 of the content, or -1 if unknown.
+	 * @param lastModified   Modification time in milliseconds.
+	 */
+	private void addFile(OMFactory factory, OMNamespace ns, OMElement result, String name, long size,
+	                     long compressedSize, long crc, long lastModified) {
+		OMElement messageElement = factory.createOMElement(FileConstants.FILE, ns);
+		messageElement.setText(name);
+		if (size >= 0) {
+			messageElement.addAttribute(FileConstants.SIZE, String.valueOf(size), null);
+		}
+		if (compressedSize >= 0) {
+			messageElement.addAttribute(FileConstants.COMPRESSED_SIZE, String.valueOf(compressedSize), null);
+		}
+		if (crc >= 0) {
+			messageElement.addAttribute(FileConstants.CRC, String.format("%08x", crc), null);
+		}
+		String timestamp = new SimpleDateFormat(FileConstants.LAST_MODIFIED_FORMAT).format(new Date(lastModified));
+		messageElement.addAttribute(FileConstants.LAST_MODIFIED, timestamp, null);
+		result.addChild(messageElement);
+	}
 }
\ No newline at end of file
@@ -17,13 +17,19 @@
 */
 package org.wso2.carbon.connector;
 
+import org.apache.axiom.om.OMAbstractFactory;
+import org.apache.axiom.om.OMElement;
+import org.apache.axiom.om.OMFactory;
+import org.apache.axiom.om.OMNamespace;
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.apache.commons.vfs2.FileName;
 import org.apache.commons.vfs2.FileObject;
 import org.apache.commons.vfs2.FileSystemException;
 import org.apache.commons.vfs2.FileSystemOptions;
 import org.apache.commons.vfs2.FileType;
+import org.apache.commons.vfs2.Selectors;
 import org.apache.commons.vfs2.impl.StandardFileSystemManager;
 import org.apache.synapse.MessageContext;
 import org.apache.synapse.SynapseException;
@@ -32,10 +38,20 @@ import org.wso2.carbon.connector.core.util.ConnectorUtils;
 import org.wso2.carbon.connector.util.FileConnectorUtils;
 import org.wso2.carbon.connector.util.FileConstants;
 import org.wso2.carbon.connector.util.FilePattenMatcher;
+import org.wso2.carbon.connector.util.ParallelFileExecutor;
+import org.wso2.carbon.connector.util.PipelinedTransfer;
 import org.wso2.carbon.connector.util.ResultPayloadCreator;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * This class is used to move file/folder to target directory.
@@ -50,7 +66,7 @@ public class FileMoveConnector extends AbstractConnector {
 	 */
 	public void connect(MessageContext messageContext) {
 		try {
-			ResultPayloadCreator.generateResult(messageContext, move(messageContext));
+			ResultPayloadCreator.preparePayload(messageContext, move(messageContext));
 		} catch (FileSystemException e) {
 			e.printStackTrace();
 		}
@@ -60,9 +76,9 @@ public class FileMoveConnector extends AbstractConnector {
 	 * Move the file/folder from source to destination directory.
 	 *
 	 * @param messageContext The message context that is generated for processing the move operation.
-	 * @return true, if the file/folder is successfully moved.
+	 * @return The result element, holding the move plan in dry run mode.
 	 */
-	private boolean move(MessageContext messageContext) throws FileSystemException {
+	private OMElement move(MessageContext messageContext) throws FileSystemException {
 		String source = (String) ConnectorUtils.lookupTemplateParamater(messageContext, FileConstants.FILE_LOCATION);
 		String destination =
 				(String) ConnectorUtils.lookupTemplateParamater(messageContext, FileConstants.NEW_FILE_LOCATION);
@@ -76,19 +92,33 @@ public class FileMoveConnector extends AbstractConnector {
 			includeParentDirectoryParameter = Boolean.parseBoolean(includeParentDirectory);
 		}
 
+		boolean dryRun = FileConnectorUtils.getBooleanParameter(messageContext, FileConstants.DRY_RUN, false);
+		int parallelism = FileConnectorUtils
+				.getIntParameter(messageContext, FileConstants.PARALLELISM, FileConstants.DEFAULT_PARALLELISM);
+
 		StandardFileSystemManager manager = FileConnectorUtils.getManager();
 		FileSystemOptions opts = FileConnectorUtils.init(messageContext);
+		PipelinedTransfer pipelinedTransfer = FileConnectorUtils.getPipelinedTransfer(messageContext);
+		OMElement result = ResultPayloadCreator.createResult(true);
 		// Create remote object
 		FileObject remoteFile = manager.resolveFile(source, opts);
 		try {
 			if (!remoteFile.exists()) {
 				log.error("The file/folder location does not exist.");
-				return false;
+				return ResultPayloadCreator.createResult(false);
 			}
 			if (FileType.FILE.equals(remoteFile.getType())) {
-				moveFile(destination, remoteFile, manager, opts);
+				moveFile(destination, remoteFile, manager, opts, pipelinedTransfer);
+			} else if (StringUtils.isNotEmpty(filePattern)) {
+				List<PlannedMove> plan = planPatternMove(remoteFile, destination, filePattern, manager, opts);
+				if (dryRun) {
+					addPlan(plan, result);
+				} else {
+					checkConflicts(plan);
+					executePlan(plan, parallelism, manager, opts, pipelinedTransfer);
+				}
 			} else {
-				moveFolder(source, destination, filePattern, includeParentDirectoryParameter, manager, opts);
+				moveFolder(source, destination, includeParentDirectoryParameter, manager, opts, pipelinedTransfer);
 			}
 			if (log.isDebugEnabled()) {
 				log.debug("File move completed from " + source + " to " + destination);
@@ -104,21 +134,22 @@ public class FileMoveConnector extends AbstractConnector {
 				log.error("Error while closing the FileObject", e);
 			}
 		}
-		return true;
+		return result;
 	}
 
 	/**
 	 * Move the file to the target directory.
 	 *
-	 * @param destination The target location of the folder to be moved.
-	 * @param remoteFile  Location of the remote file.
-	 * @param manager     Standard file system manager.
-	 * @param opts        Configured file system options.
+	 * @param destination       The target location of the folder to be moved.
+	 * @param remoteFile        Location of the remote file.
+	 * @param manager           Standard file system manager.
+	 * @param opts              Configured file system options.
+	 * @param pipelinedTransfer Pipelined transfer engine to use for moves between different hosts.
 	 * @throws FileSystemException On error parsing the file name, determining if the file exists and creating the
 	 *                             file/folder.
 	 */
 	private void moveFile(String destination, FileObject remoteFile, StandardFileSystemManager manager,
-	                      FileSystemOptions opts) throws FileSystemException {
+	                      FileSystemOptions opts, PipelinedTransfer pipelinedTransfer) throws FileSystemException {
 		FileObject file = manager.resolveFile(destination, opts);
 		if (FileConnectorUtils.isFolder(file)) {
 			if (!file.exists()) {
@@ -128,7 +159,7 @@ public class FileMoveConnector extends AbstractConnector {
 		} else if (!file.exists()) {
 			file.createFile();
 		}
-		remoteFile.moveTo(file);
+		moveTo(remoteFile, file, pipelinedTransfer);
 	}
 
 	/**
@@ -139,59 +170,197 @@ public class FileMoveConnector extends AbstractConnector {
 	 * @param includeParentDirectory Boolean type to include the parent directory.
 	 * @param manager                Standard file system manager.
 	 * @param opts                   Configured file system options.
+	 * @param pipelinedTransfer      Pipelined transfer engine to use for moves between different hosts.
 	 */
-	private void moveFolder(String source, String destination, String filePattern, boolean includeParentDirectory,
-	                        StandardFileSystemManager manager, FileSystemOptions opts) throws FileSystemException {
+	private void moveFolder(String source, String destination, boolean includeParentDirectory,
+	                        StandardFileSystemManager manager, FileSystemOptions opts,
+	                        PipelinedTransfer pipelinedTransfer) throws FileSystemException {
 		FileObject remoteFile = manager.resolveFile(source, opts);
 		FileObject file = manager.resolveFile(destination, opts);
-		if (StringUtils.isNotEmpty(filePattern)) {
-			FileObject[] children = remoteFile.getChildren();
-			for (FileObject child : children) {
-				if (FileType.FILE.equals(child.getType())) {
-					moveFileWithPattern(child, destination, filePattern, manager, opts);
-				} else if (FileType.FOLDER.equals(child.getType())) {
-					String newSource = source + File.separator + child.getName().getBaseName();
-					moveFolder(newSource, destination, filePattern, includeParentDirectory, manager, opts);
-				}
-			}
-		} else if (includeParentDirectory) {
+		if (includeParentDirectory) {
 			FileObject destFile =
 					manager.resolveFile(destination + File.separator + remoteFile.getName().getBaseName(), opts);
 			destFile.createFolder();
-			remoteFile.moveTo(destFile);
+			moveTo(remoteFile, destFile, pipelinedTransfer);
 		} else {
 			if (!file.exists()) {
 				file.createFolder();
 			}
-			remoteFile.moveTo(file);
+			moveTo(remoteFile, file, pipelinedTransfer);
 			remoteFile.createFolder();
 		}
 	}
 
 	/**
-	 * Move the file for given pattern.
+	 * Build the move plan for a pattern move. The source tree is listed once and every file matching the pattern
+	 * is planned to be moved into the destination folder. Files of different folders with the same name would be
+	 * moved to the same target, so those moves are marked as conflicting.
 	 *
-	 * @param remoteFile  Location of the remote file.
+	 * @param remoteFile  The source folder.
 	 * @param destination Location of the target folder.
 	 * @param filePattern Pattern of the file.
 	 * @param manager     Standard file system manager.
 	 * @param opts        Configured file system options.
+	 * @return The planned moves.
+	 * @throws FileSystemException On error listing the source tree.
 	 */
-	private void moveFileWithPattern(FileObject remoteFile, String destination, String filePattern,
-	                                 StandardFileSystemManager manager, FileSystemOptions opts) {
+	private List<PlannedMove> planPatternMove(FileObject remoteFile, String destination, String filePattern,
+	                                          StandardFileSystemManager manager, FileSystemOptions opts)
+			throws FileSystemException {
 		FilePattenMatcher patternMatcher = new FilePattenMatcher(filePattern);
-		try {
-			if (patternMatcher.validate(remoteFile.getName().getBaseName())) {
-				FileObject destFile = manager.resolveFile(destination, opts);
-				if (!destFile.exists()) {
-					destFile.createFolder();
+		FileName destFolder = manager.resolveFile(destination, opts).getName();
+		List<PlannedMove> plan = new ArrayList<>();
+		Map<FileName, PlannedMove> targets = new HashMap<>();
+		Deque<FileObject> folders = new ArrayDeque<>();
+		folders.push(remoteFile);
+		while (!folders.isEmpty()) {
+			FileObject folder = folders.pop();
+			for (FileObject child : folder.getChildren()) {
+				if (FileType.FILE.equals(child.getType())) {
+					if (patternMatcher.validate(child.getName().getBaseName())) {
+						PlannedMove plannedMove = new PlannedMove(child.getName(), manager.resolveName(destFolder,
+						                                          child.getName().getBaseName()));
+						PlannedMove sameTarget = targets.put(plannedMove.target, plannedMove);
+						if (sameTarget != null) {
+							sameTarget.conflict = true;
+							plannedMove.conflict = true;
+						}
+						plan.add(plannedMove);
+					}
+				} else if (FileType.FOLDER.equals(child.getType())) {
+					folders.push(child);
 				}
-				FileObject newDestFile = manager.resolveFile(destination + File.separator +
-				                                             remoteFile.getName().getBaseName(), opts);
-				remoteFile.moveTo(newDestFile);
 			}
-		} catch (FileSystemException e) {
-			throw new SynapseException("Error occurred while moving a file for a given pattern", e);
+		}
+		if (log.isDebugEnabled()) {
+			log.debug("Planned " + plan.size() + " moves from " + remoteFile.getName().getFriendlyURI());
+		}
+		return plan;
+	}
+
+	/**
+	 * Check that no two moves of the plan have the same target, before anything is moved.
+	 *
+	 * @param plan The planned moves.
+	 */
+	private void checkConflicts(List<PlannedMove> plan) {
+		StringBuilder conflicts = new StringBuilder();
+		for (PlannedMove plannedMove : plan) {
+			if (plannedMove.conflict) {
+				conflicts.append(conflicts.length() == 0 ? "" : ", ").append(plannedMove.source.getFriendlyURI());
+			}
+		}
+		if (conflicts.length() > 0) {
+			throw new SynapseException("Files with the same name would be moved to the same target, nothing was "
+			                           + "moved: " + conflicts);
+		}
+	}
+
+	/**
+	 * Execute the move plan. The destination folders are created once and the moves are then run with bounded
+	 * parallelism, each worker using its own session.
+	 *
+	 * @param plan              The planned moves.
+	 * @param parallelism       Maximum number of moves running at the same time.
+	 * @param manager           Standard file system manager.
+	 * @param opts              Configured file system options.
+	 * @param pipelinedTransfer Pipelined transfer engine to use for moves between different hosts.
+	 * @throws FileSystemException On error creating the destination folders.
+	 */
+	private void executePlan(List<PlannedMove> plan, int parallelism, StandardFileSystemManager manager,
+	                         final FileSystemOptions opts, final PipelinedTransfer pipelinedTransfer)
+			throws FileSystemException {
+		Set<FileName> targetFolders = new LinkedHashSet<>();
+		for (PlannedMove plannedMove : plan) {
+			targetFolders.add(plannedMove.target.getParent());
+		}
+		for (FileName targetFolder : targetFolders) {
+			manager.resolveFile(targetFolder.getURI(), opts).createFolder();
+		}
+		ParallelFileExecutor.execute(plan, parallelism, new ParallelFileExecutor.Task<PlannedMove>() {
+			@Override
+			public void execute(PlannedMove plannedMove, StandardFileSystemManager workerManager)
+					throws IOException {
+				FileObject sourceFile = workerManager.resolveFile(plannedMove.source.getURI(), opts);
+				FileObject targetFile = workerManager.resolveFile(plannedMove.target.getURI(), opts);
+				try {
+					moveTo(sourceFile, targetFile, pipelinedTransfer);
+				} finally {
+					sourceFile.close();
+					targetFile.close();
+				}
+			}
+		});
+	}
+
+	/**
+	 * Add the move plan to the result. Moves that have the same target as another move are marked as conflicting.
+	 *
+	 * @param plan   The planned moves.
+	 * @param result The result element.
+	 */
+	private void addPlan(List<PlannedMove> plan, OMElement result) {
+		OMFactory factory = OMAbstractFactory.getOMFactory();
+		OMNamespace ns = factory.createOMNamespace(FileConstants.FILECON, FileConstants.NAMESPACE);
+		for (PlannedMove plannedMove : plan) {
+			OMElement moveElement = factory.createOMElement(FileConstants.MOVE, ns);
+			OMElement sourceElement = factory.createOMElement(FileConstants.FILE_LOCATION, ns);
+			sourceElement.setText(plannedMove.source.getFriendlyURI());
+			moveElement.addChild(sourceElement);
+			OMElement destinationElement = factory.createOMElement(FileConstants.NEW_FILE_LOCATION, ns);
+			destinationElement.setText(plannedMove.target.getFriendlyURI());
+			moveElement.addChild(destinationElement);
+			if (plannedMove.conflict) {
+				moveElement.addAttribute(FileConstants.CONFLICT, String.valueOf(true), null);
+			}
+			result.addChild(moveElement);
+		}
+	}
+
+	/**
+	 * Move a file/folder to the target. Moves within the same host and credentials are done with a server side
+	 * rename, moves between different hosts are copied through the pipelined transfer engine and the source is
+	 * deleted afterwards.
+	 *
+	 * @param source            The file/folder to move.
+	 * @param target            The target file/folder.
+	 * @param pipelinedTransfer Pipelined transfer engine to use for moves between different hosts.
+	 * @throws FileSystemException On error moving the file/folder.
+	 */
+	private void moveTo(FileObject source, FileObject target, PipelinedTransfer pipelinedTransfer)
+			throws FileSystemException {
+		if (FileConnectorUtils.isSameHost(source, target)) {
+			// VFS only renames when both objects belong to the same file system instance, otherwise it falls back
+			// to copy and delete.
+			FileObject renameTarget = FileConnectorUtils.resolveOnSameFileSystem(source, target);
+			if (log.isDebugEnabled()) {
+				log.debug("Moving " + source.getName().getFriendlyURI() + " to "
+				          + renameTarget.getName().getFriendlyURI() + ", native rename: "
+				          + source.canRenameTo(renameTarget));
+			}
+			source.moveTo(renameTarget);
+			return;
+		}
+		try {
+			pipelinedTransfer.copy(source, target);
+		} catch (IOException e) {
+			throw new SynapseException("Unable to move " + source.getName().getFriendlyURI() + " to "
+			                           + target.getName().getFriendlyURI(), e);
+		}
+		source.delete(Selectors.SELECT_ALL);
+	}
+
+	/**
+	 * A single move of the plan.
+	 */
+	private static class PlannedMove {
+		private final FileName source;
+		private final FileName target;
+		private boolean conflict;
+
+		PlannedMove(FileName source, FileName target) {
+			this.source = source;
+			this.target = target;
 		}
 	}
 }
\ No newline at end of file
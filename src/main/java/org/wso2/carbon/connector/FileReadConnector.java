@@ -17,6 +17,7 @@
 */
 package org.wso2.carbon.connector;
 
+import org.apache.commons.io.FilenameUtils;
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -31,6 +32,12 @@ import org.wso2.carbon.connector.core.util.ConnectorUtils;
 import org.wso2.carbon.connector.util.FileConnectorUtils;
 import org.wso2.carbon.connector.util.FileConstants;
 import org.wso2.carbon.connector.util.ResultPayloadCreator;
+import org.wso2.carbon.connector.util.SegmentedFileTransfer;
+import org.wso2.carbon.connector.util.TempFileDataSource;
+import org.wso2.carbon.connector.util.ZipEntryDataSource;
+
+import java.io.File;
+import java.io.IOException;
 
 /**
  * This class is used to read file content.
@@ -58,6 +65,7 @@ public class FileReadConnector extends AbstractConnector {
 				(String) ConnectorUtils.lookupTemplateParamater(messageContext, FileConstants.CONTENT_TYPE);
 		String filePattern =
 				(String) ConnectorUtils.lookupTemplateParamater(messageContext, FileConstants.FILE_PATTERN);
+		String entryName = (String) ConnectorUtils.lookupTemplateParamater(messageContext, FileConstants.ENTRY_NAME);
 		boolean streaming = false;
 		String enableStreamingParameter =
 				(String) ConnectorUtils.lookupTemplateParamater(messageContext, FileConstants.ENABLE_STREAMING);
@@ -94,7 +102,14 @@ public class FileReadConnector extends AbstractConnector {
 			} else {
 				log.error("File does not exists, or an empty folder");
 			}
-			ResultPayloadCreator.buildFile(fileObjectToRead, messageContext, contentType, streaming);
+			if (fileObjectToRead != null && StringUtils.isNotEmpty(entryName)) {
+				readZipEntry(fileObjectToRead, entryName.trim(), messageContext, contentType, streaming);
+			} else if (fileObjectToRead != null && !FileConnectorUtils.isLocal(fileObjectToRead) && FileConnectorUtils
+					.getBooleanParameter(messageContext, FileConstants.SEGMENTED_TRANSFER, false)) {
+				readInSegments(fileObjectToRead, messageContext, contentType, streaming, manager);
+			} else {
+				ResultPayloadCreator.buildFile(fileObjectToRead, messageContext, contentType, streaming);
+			}
 			if (log.isDebugEnabled()) {
 				log.debug("File read completed." + source);
 			}
@@ -115,4 +130,66 @@ public class FileReadConnector extends AbstractConnector {
 			}
 		}
 	}
+
+	/**
+	 * Read a single entry of a zip archive into the message, inflating it while the message is built.
+	 *
+	 * @param archive        The zip archive.
+	 * @param entryName      Name of the entry to read.
+	 * @param messageContext The message context that is generated for processing the read operation.
+	 * @param contentType    Content type of the entry.
+	 * @param streaming      Streaming mode (true/false).
+	 */
+	private void readZipEntry(FileObject archive, String entryName, MessageContext messageContext,
+	                          String contentType, boolean streaming) {
+		contentType = ResultPayloadCreator.getContentType(FilenameUtils.getExtension(entryName), contentType,
+		                                                  messageContext);
+		try {
+			ResultPayloadCreator.buildFile(new ZipEntryDataSource(archive, entryName, contentType), messageContext,
+			                               contentType, streaming);
+		} catch (IOException e) {
+			throw new SynapseException("Error while reading the entry " + entryName + " of " + archive, e);
+		}
+	}
+
+	/**
+	 * Download the remote file into a local temporary file in parallel segments and read it from there.
+	 *
+	 * @param fileObjectToRead The remote file to read.
+	 * @param messageContext   The message context that is generated for processing the read operation.
+	 * @param contentType      Content type of the file.
+	 * @param streaming        Streaming mode (true/false).
+	 * @param manager          Standard file system manager.
+	 * @throws FileSystemException On error resolving the temporary file.
+	 */
+	private void readInSegments(FileObject fileObjectToRead, MessageContext messageContext, String contentType,
+	                            boolean streaming, StandardFileSystemManager manager) throws FileSystemException {
+		File tempFile;
+		try {
+			tempFile = File.createTempFile("fileconnector", "." + fileObjectToRead.getName().getExtension());
+		} catch (IOException e) {
+			throw new SynapseException("Unable to create a temporary file", e);
+		}
+		try {
+			int segmentCount = FileConnectorUtils
+					.getIntParameter(messageContext, FileConstants.SEGMENT_COUNT, FileConstants.DEFAULT_SEGMENT_COUNT);
+			new SegmentedFileTransfer(FileConnectorUtils.init(messageContext), segmentCount)
+					.download(fileObjectToRead.getName().getURI(), tempFile);
+			if (streaming) {
+				// The content is consumed later in the mediation flow, the file is deleted once it has been read
+				contentType = ResultPayloadCreator.getContentType(fileObjectToRead.getName().getExtension(),
+				                                                  contentType, messageContext);
+				ResultPayloadCreator.buildFile(
+						new TempFileDataSource(tempFile, fileObjectToRead.getName().getURI(), contentType),
+						messageContext, contentType, true);
+				tempFile = null;
+			} else {
+				ResultPayloadCreator.buildFile(manager.toFileObject(tempFile), messageContext, contentType, false);
+			}
+		} finally {
+			if (tempFile != null && !tempFile.delete()) {
+				log.warn("Unable to delete the temporary file " + tempFile);
+			}
+		}
+	}
 }
\ No newline at end of file
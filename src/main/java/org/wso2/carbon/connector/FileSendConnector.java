@@ -17,46 +17,74 @@
  */
 package org.wso2.carbon.connector;
 
+import org.apache.axiom.om.OMAbstractFactory;
 import org.apache.axiom.om.OMElement;
-import org.apache.axiom.om.OMOutputFormat;
-import org.apache.axis2.AxisFault;
-import org.apache.axis2.format.BinaryFormatter;
-import org.apache.axis2.format.PlainTextFormatter;
-import org.apache.axis2.transport.MessageFormatter;
-import org.apache.axis2.transport.base.BaseConstants;
-import org.apache.axis2.transport.base.BaseUtils;
-import org.apache.axis2.util.MessageProcessorSelector;
+import org.apache.axiom.om.OMFactory;
+import org.apache.axiom.om.OMNamespace;
+import org.apache.commons.io.IOUtils;
 import org.apache.commons.io.output.CountingOutputStream;
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.commons.vfs2.FileObject;
 import org.apache.commons.vfs2.FileSystemException;
-import org.apache.commons.vfs2.FileType;
+import org.apache.commons.vfs2.FileSystemOptions;
 import org.apache.commons.vfs2.impl.StandardFileSystemManager;
+import org.apache.synapse.ManagedLifecycle;
 import org.apache.synapse.MessageContext;
 import org.apache.synapse.SynapseException;
-import org.apache.synapse.core.axis2.Axis2MessageContext;
+import org.apache.synapse.core.SynapseEnvironment;
 import org.wso2.carbon.connector.core.AbstractConnector;
 import org.wso2.carbon.connector.core.util.ConnectorUtils;
+import org.wso2.carbon.connector.util.AsyncFileSender;
 import org.wso2.carbon.connector.util.FileConnectorUtils;
 import org.wso2.carbon.connector.util.FileConstants;
+import org.wso2.carbon.connector.util.MessageSnapshot;
+import org.wso2.carbon.connector.util.ParallelFileExecutor;
+import org.wso2.carbon.connector.util.PipelinedTransfer;
 import org.wso2.carbon.connector.util.ResultPayloadCreator;
+import org.wso2.carbon.connector.util.SplittingOutputStream;
 
 import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * This class is used to send the file to specific location.
  */
-public class FileSendConnector extends AbstractConnector {
+public class FileSendConnector extends AbstractConnector implements ManagedLifecycle {
 	private static final Log log = LogFactory.getLog(FileSendConnector.class);
 
+	@Override
+	public void init(SynapseEnvironment synapseEnvironment) {
+	}
+
+	/**
+	 * Deliver the queued asynchronous sends before the connector is undeployed.
+	 */
+	@Override
+	public void destroy() {
+		AsyncFileSender.shutdown();
+	}
+
 	/**
 	 * Initiate the sendFile method.
 	 *
 	 * @param messageContext The message context that is used in file send mediation flow.
 	 */
 	public void connect(MessageContext messageContext) {
+		String destinations =
+				(String) ConnectorUtils.lookupTemplateParamater(messageContext, FileConstants.DESTINATIONS);
+		long maxFileSize = FileConnectorUtils.getLongParameter(messageContext, FileConstants.MAX_FILE_SIZE, 0);
+		if (maxFileSize > 0) {
+			ResultPayloadCreator.preparePayload(messageContext, sendInParts(messageContext, maxFileSize));
+			return;
+		}
+		if (StringUtils.isNotEmpty(destinations)) {
+			ResultPayloadCreator.preparePayload(messageContext, sendToAll(messageContext, destinations));
+			return;
+		}
 		try {
 			ResultPayloadCreator.generateResult(messageContext, sendResponseFile(messageContext));
 		} catch (FileSystemException e) {
@@ -64,28 +92,6 @@ public class FileSendConnector extends AbstractConnector {
 		}
 	}
 
-	/**
-	 * Get the formatter for message.
-	 *
-	 * @param msgContext The message context that is generated for processing the file.
-	 * @return messageFormatter to process the send response file operation.
-	 */
-	private MessageFormatter getMessageFormatter(org.apache.axis2.context.MessageContext msgContext) {
-		OMElement firstChild = msgContext.getEnvelope().getBody().getFirstElement();
-		if (firstChild != null) {
-			if (BaseConstants.DEFAULT_BINARY_WRAPPER.equals(firstChild.getQName())) {
-				return new BinaryFormatter();
-			} else if (BaseConstants.DEFAULT_TEXT_WRAPPER.equals(firstChild.getQName())) {
-				return new PlainTextFormatter();
-			}
-		}
-		try {
-			return MessageProcessorSelector.getMessageFormatter(msgContext);
-		} catch (AxisFault axisFault) {
-			throw new SynapseException("Unable to get the message formatter to use");
-		}
-	}
-
 	/**
 	 * Send the file to the target directory.
 	 *
@@ -102,49 +108,239 @@ public class FileSendConnector extends AbstractConnector {
 		if (StringUtils.isNotEmpty(strAppend)) {
 			append = Boolean.parseBoolean(strAppend);
 		}
+		if (FileConnectorUtils.getBooleanParameter(messageContext, FileConstants.ASYNC_SEND, false)) {
+			return sendAsync(messageContext, destination, append);
+		}
 		StandardFileSystemManager manager = FileConnectorUtils.getManager();
-		FileObject fileObjectToSend = null;
-		FileObject fileObj = manager.resolveFile(destination, FileConnectorUtils.init(messageContext));
+		FileObject fileObjectToSend =
+				FileConnectorUtils.resolveSendTarget(manager, destination, FileConnectorUtils.init(messageContext));
 		CountingOutputStream outputStream = null;
 		if (log.isDebugEnabled()) {
 			log.debug("File sending started to " + destination);
 		}
 		try {
-			org.apache.axis2.context.MessageContext axis2MessageContext =
-					((Axis2MessageContext) messageContext).getAxis2MessageContext();
-
-			if (FileType.FOLDER.equals(fileObj.getType())) {
-				String destDir = destination.concat(FileConstants.DEFAULT_RESPONSE_FILE);
-				fileObjectToSend = manager.resolveFile(destDir, FileConnectorUtils.init(messageContext));
-			}else if (FileType.FILE.equals(fileObj.getType())){
-				fileObjectToSend = fileObj;
-			}
-			// Get the message formatter.
-			MessageFormatter messageFormatter = getMessageFormatter(axis2MessageContext);
-			OMOutputFormat format = BaseUtils.getOMOutputFormat(axis2MessageContext);
 			// Creating output stream and give the content to that.
-			outputStream = new CountingOutputStream(fileObjectToSend.getContent().getOutputStream(append));
-			messageFormatter.writeTo(axis2MessageContext, format, outputStream, true);
+			OutputStream out = fileObjectToSend.getContent().getOutputStream(append);
+			if (!FileConnectorUtils.isLocal(fileObjectToSend)) {
+				// Keep formatting the message while the previous buffers are uploaded to the remote host
+				out = FileConnectorUtils.getPipelinedTransfer(messageContext).newOutputStream(out);
+			}
+			outputStream = new CountingOutputStream(out);
+			String compression =
+					(String) ConnectorUtils.lookupTemplateParamater(messageContext, FileConstants.COMPRESSION);
+			OutputStream compressedStream = FileConnectorUtils.compress(outputStream, compression);
+			FileConnectorUtils.writeMessageBody(messageContext, compressedStream);
+			// Closing finishes the compressed content and waits until the pipelined writer has uploaded the
+			// remaining buffers
+			compressedStream.close();
 			if (log.isDebugEnabled()) {
 				log.debug("File send completed to " + destination);
 			}
-		} catch (AxisFault e) {
-			throw new SynapseException("Error while writing the message context", e);
+		} catch (IOException e) {
+			throw new SynapseException("Error while writing the file to " + destination, e);
 		} finally {
+			try {
+				if (outputStream != null) {
+					outputStream.close();
+				}
+			} catch (IOException e) {
+				log.warn("Can not close the output stream");
+			}
 			try {
 				fileObjectToSend.close();
 			} catch (FileSystemException e) {
 				log.error("Error while closing FileObject", e);
 			}
+			manager.close();
+		}
+		return true;
+	}
+
+	/**
+	 * Send the message to the destination, rolling over to numbered part files whenever a file reaches the maximum
+	 * size. Text payloads are split on line boundaries.
+	 *
+	 * @param messageContext The message context that is used in file send mediation flow.
+	 * @param maxFileSize    Maximum size of a file in bytes.
+	 * @return The result element, holding the number of parts and the manifest if the message was split.
+	 */
+	private OMElement sendInParts(MessageContext messageContext, long maxFileSize) {
+		if (StringUtils.isNotEmpty(
+				(String) ConnectorUtils.lookupTemplateParamater(messageContext, FileConstants.DESTINATIONS))
+		    || FileConnectorUtils.getBooleanParameter(messageContext, FileConstants.ASYNC_SEND, false)
+		    || FileConnectorUtils.getBooleanParameter(messageContext, FileConstants.APPEND, false)) {
+			throw new SynapseException("The maxFileSize can not be combined with destinations, async or append");
+		}
+		String destination =
+				(String) ConnectorUtils.lookupTemplateParamater(messageContext, FileConstants.NEW_FILE_LOCATION);
+		String compression = (String) ConnectorUtils.lookupTemplateParamater(messageContext, FileConstants.COMPRESSION);
+		StandardFileSystemManager manager = FileConnectorUtils.getManager();
+		FileObject target = null;
+		SplittingOutputStream out = null;
+		OMElement result = ResultPayloadCreator.createResult(true);
+		try {
+			target = FileConnectorUtils.resolveSendTarget(manager, destination,
+			                                               FileConnectorUtils.init(messageContext));
+			PipelinedTransfer pipeline =
+					FileConnectorUtils.isLocal(target) ? null : FileConnectorUtils.getPipelinedTransfer(messageContext);
+			out = new SplittingOutputStream(target, maxFileSize, FileConnectorUtils.isTextPayload(messageContext),
+			                                compression, pipeline);
+			FileConnectorUtils.writeMessageBody(messageContext, out);
+			// Closing finishes the last part and writes the manifest
+			out.close();
+			if (out.getPartCount() > 1) {
+				OMFactory factory = OMAbstractFactory.getOMFactory();
+				OMNamespace ns = factory.createOMNamespace(FileConstants.FILECON, FileConstants.NAMESPACE);
+				OMElement partsElement = factory.createOMElement(FileConstants.PARTS, ns);
+				partsElement.setText(String.valueOf(out.getPartCount()));
+				result.addChild(partsElement);
+				OMElement manifestElement = factory.createOMElement(FileConstants.MANIFEST, ns);
+				manifestElement.setText(out.getManifest().getName().getFriendlyURI());
+				result.addChild(manifestElement);
+			}
+			if (log.isDebugEnabled()) {
+				log.debug("File send completed to " + destination + " in " + out.getPartCount() + " parts.");
+			}
+		} catch (IOException e) {
+			throw new SynapseException("Error while writing the file to " + destination, e);
+		} finally {
+			IOUtils.closeQuietly(out);
 			try {
-				if (outputStream != null) {
-					outputStream.close();
+				if (target != null) {
+					target.close();
 				}
-			} catch (IOException e) {
-				log.warn("Can not close the output stream");
+			} catch (FileSystemException e) {
+				log.error("Error while closing FileObject", e);
 			}
 			manager.close();
 		}
+		return result;
+	}
+
+	/**
+	 * Take a snapshot of the message body and return without waiting for the delivery. A failed delivery is routed
+	 * to the configured fault sequence.
+	 *
+	 * @param messageContext The message context that is used in file send mediation flow.
+	 * @param destination    Location of the destination file or folder.
+	 * @param append         Whether to append to the destination file.
+	 * @return true, if the message is queued for delivery.
+	 */
+	private boolean sendAsync(MessageContext messageContext, String destination, boolean append) {
+		String faultSequence =
+				(String) ConnectorUtils.lookupTemplateParamater(messageContext, FileConstants.ASYNC_FAULT_SEQUENCE);
+		int depth = AsyncFileSender.submit(messageContext, takeSnapshot(messageContext), destination, append,
+		                                   faultSequence);
+		messageContext.setProperty(FileConstants.SEND_QUEUE_DEPTH, depth);
+		if (log.isDebugEnabled()) {
+			log.debug("File send queued to " + destination);
+		}
 		return true;
 	}
+
+	/**
+	 * Format the message once and write it to every destination in parallel.
+	 *
+	 * @param messageContext The message context that is used in file send mediation flow.
+	 * @param destinations   Comma separated list of destination files or folders. A comma within a destination is
+	 *                       written percent-encoded as %2C, which the file system decodes.
+	 * @return The result element, holding the result of each destination.
+	 */
+	private OMElement sendToAll(MessageContext messageContext, String destinations) {
+		List<FanOutTarget> targets = new ArrayList<>();
+		for (String destination : destinations.split(",")) {
+			if (StringUtils.isNotBlank(destination)) {
+				targets.add(new FanOutTarget(destination.trim()));
+			}
+		}
+		if (targets.isEmpty()) {
+			throw new SynapseException("No destination is given in the destinations parameter: " + destinations);
+		}
+		if (FileConnectorUtils.getBooleanParameter(messageContext, FileConstants.ASYNC_SEND, false)) {
+			throw new SynapseException("The destinations can not be combined with async");
+		}
+		final boolean append = FileConnectorUtils.getBooleanParameter(messageContext, FileConstants.APPEND, false);
+		final FileSystemOptions opts = FileConnectorUtils.init(messageContext);
+		final PipelinedTransfer pipeline = FileConnectorUtils.getPipelinedTransfer(messageContext);
+		int parallelism = FileConnectorUtils.getIntParameter(messageContext, FileConstants.PARALLELISM,
+		                                                     Math.max(1, targets.size()));
+		final MessageSnapshot snapshot = takeSnapshot(messageContext);
+		try {
+			ParallelFileExecutor.execute(targets, parallelism, new ParallelFileExecutor.Task<FanOutTarget>() {
+				@Override
+				public void execute(FanOutTarget target, StandardFileSystemManager manager) {
+					// A failed destination must not stop the others, so the failure is kept as its result
+					try {
+						target.name = manager.resolveURI(target.destination).getFriendlyURI();
+						target.name = snapshot.writeTo(manager, target.destination, opts, append, pipeline);
+					} catch (IOException | RuntimeException e) {
+						log.error("Error while writing the file to " + target.name, e);
+						target.error = e;
+					}
+				}
+			});
+		} finally {
+			snapshot.delete();
+		}
+		boolean success = true;
+		OMFactory factory = OMAbstractFactory.getOMFactory();
+		OMNamespace ns = factory.createOMNamespace(FileConstants.FILECON, FileConstants.NAMESPACE);
+		List<OMElement> sendElements = new ArrayList<>();
+		for (FanOutTarget target : targets) {
+			OMElement sendElement = factory.createOMElement(FileConstants.SEND, ns);
+			OMElement destinationElement = factory.createOMElement(FileConstants.NEW_FILE_LOCATION, ns);
+			destinationElement.setText(target.name);
+			sendElement.addChild(destinationElement);
+			OMElement successElement = factory.createOMElement(FileConstants.SUCCESS, ns);
+			successElement.setText(String.valueOf(target.error == null));
+			sendElement.addChild(successElement);
+			if (target.error != null) {
+				success = false;
+				OMElement errorElement = factory.createOMElement(FileConstants.ERROR, ns);
+				errorElement.setText(String.valueOf(target.error.getMessage()));
+				sendElement.addChild(errorElement);
+			}
+			sendElements.add(sendElement);
+		}
+		OMElement result = ResultPayloadCreator.createResult(success);
+		for (OMElement sendElement : sendElements) {
+			result.addChild(sendElement);
+		}
+		if (log.isDebugEnabled()) {
+			log.debug("File send completed to " + targets.size() + " destinations.");
+		}
+		return result;
+	}
+
+	/**
+	 * Format the message body into a snapshot that can be written to the destinations later.
+	 *
+	 * @param messageContext The message context that is used in file send mediation flow.
+	 * @return The snapshot.
+	 */
+	private MessageSnapshot takeSnapshot(MessageContext messageContext) {
+		int spillThreshold = FileConnectorUtils.getIntParameter(messageContext, FileConstants.SPILL_THRESHOLD,
+		                                                        FileConstants.DEFAULT_SPILL_THRESHOLD);
+		String compression =
+				(String) ConnectorUtils.lookupTemplateParamater(messageContext, FileConstants.COMPRESSION);
+		try {
+			return MessageSnapshot.take(messageContext, spillThreshold, compression);
+		} catch (IOException e) {
+			throw new SynapseException("Error while taking a snapshot of the message to send", e);
+		}
+	}
+
+	/**
+	 * A destination of a fan-out send and its result.
+	 */
+	private static class FanOutTarget {
+		private final String destination;
+		private String name;
+		private Exception error;
+
+		FanOutTarget(String destination) {
+			this.destination = destination;
+			this.name = destination;
+		}
+	}
 }
\ No newline at end of file
@@ -21,27 +21,46 @@ import org.apache.axiom.om.OMAbstractFactory;
 import org.apache.axiom.om.OMElement;
 import org.apache.axiom.om.OMFactory;
 import org.apache.axiom.om.OMNamespace;
+import org.apache.commons.compress.archivers.ArchiveEntry;
+import org.apache.commons.compress.archivers.ArchiveInputStream;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang.StringUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.apache.commons.vfs2.Capability;
 import org.apache.commons.vfs2.FileObject;
 import org.apache.commons.vfs2.FileSystemException;
 import org.apache.commons.vfs2.FileSystemOptions;
+import org.apache.commons.vfs2.RandomAccessContent;
 import org.apache.commons.vfs2.impl.StandardFileSystemManager;
+import org.apache.commons.vfs2.util.RandomAccessMode;
 import org.apache.synapse.MessageContext;
 import org.apache.synapse.SynapseException;
 import org.wso2.carbon.connector.core.AbstractConnector;
 import org.wso2.carbon.connector.core.Connector;
 import org.wso2.carbon.connector.core.util.ConnectorUtils;
+import org.wso2.carbon.connector.util.ArchiveStreams;
+import org.wso2.carbon.connector.util.DecompressionBudget;
+import org.wso2.carbon.connector.util.EntryUploader;
 import org.wso2.carbon.connector.util.FileConnectorUtils;
 import org.wso2.carbon.connector.util.FileConstants;
+import org.wso2.carbon.connector.util.FilePattenMatcher;
+import org.wso2.carbon.connector.util.ParallelFileExecutor;
 import org.wso2.carbon.connector.util.ResultPayloadCreator;
+import org.wso2.carbon.connector.util.ZipCentralDirectory;
 
 import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipInputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 /**
  * This class is used to decompress the file.
@@ -63,7 +82,8 @@ public class FileUnzipConnector extends AbstractConnector {
 	}
 
 	/**
-	 * Decompress the compressed file into the given directory.
+	 * Decompress the compressed file into the given directory. If the extraction fails, or exceeds the decompression
+	 * budget, the files and folders it has created are deleted again.
 	 *
 	 * @param messageContext The message context that is generated for processing unzip operation.
 	 * @return true, if zip file successfully extracts and false, if not.
@@ -74,6 +94,8 @@ public class FileUnzipConnector extends AbstractConnector {
 		String source = (String) ConnectorUtils.lookupTemplateParamater(messageContext, FileConstants.FILE_LOCATION);
 		String destination = (String) ConnectorUtils.lookupTemplateParamater(messageContext,
 		                                                                     FileConstants.NEW_FILE_LOCATION);
+		String filePattern =
+				(String) ConnectorUtils.lookupTemplateParamater(messageContext, FileConstants.FILE_PATTERN);
 		StandardFileSystemManager manager = FileConnectorUtils.getManager();
 		FileSystemOptions opts = FileConnectorUtils.init(messageContext);
 		FileObject remoteFile = manager.resolveFile(source, opts);
@@ -83,73 +105,339 @@ public class FileUnzipConnector extends AbstractConnector {
 			log.error("File does not exist.");
 			return false;
 		}
+		FilePattenMatcher patternMatcher =
+				StringUtils.isNotEmpty(filePattern) ? new FilePattenMatcher(filePattern.trim()) : null;
+		Extraction extraction = new Extraction(destination, opts, patternMatcher,
+		                                       DecompressionBudget.create(messageContext));
 		if (!remoteDesFile.exists()) {
 			//create a folder
 			remoteDesFile.createFolder();
+			extraction.created.add(remoteDesFile.getName().getURI());
 		}
-		//open the zip file
-		ZipInputStream zipIn = new ZipInputStream(remoteFile.getContent().getInputStream());
+		String format = ArchiveStreams.getFormat(remoteFile.getName().getBaseName(), (String) ConnectorUtils
+				.lookupTemplateParamater(messageContext, FileConstants.ARCHIVE_FORMAT));
+		int parallelism = FileConnectorUtils.getIntParameter(messageContext, FileConstants.PARALLELISM,
+		                                                     FileConstants.DEFAULT_PARALLELISM);
 		try {
-			ZipEntry entry = zipIn.getNextEntry();
+			if (FileConstants.FORMAT_ZIP.equals(format) && useCentralDirectory(remoteFile, patternMatcher)) {
+				unzipEntries(remoteFile, source, extraction, parallelism, manager);
+			} else if (parallelism > 1 && !FileConnectorUtils.isLocal(remoteDesFile)) {
+				int spillThreshold = FileConnectorUtils.getIntParameter(messageContext, FileConstants.SPILL_THRESHOLD,
+				                                                        FileConstants.DEFAULT_SPILL_THRESHOLD);
+				unzipPipelined(remoteFile, format, extraction, parallelism, spillThreshold, manager);
+			} else {
+				unzipStream(remoteFile, format, extraction, manager);
+			}
+		} catch (FileSystemException | RuntimeException e) {
+			deleteCreated(extraction, manager);
+			throw e;
+		} finally {
+			// close the StandardFileSystemManager
+			manager.close();
+			try {
+				remoteFile.close();
+				remoteDesFile.close();
+			}catch (FileSystemException e){
+				log.error("Error while closing the FileObject", e);
+			}
+		}
+		if (log.isDebugEnabled()) {
+			log.debug("File extracted to" + destination);
+		}
+		return true;
+	}
+
+	/**
+	 * Check whether the entries are to be located through the central directory instead of streaming the archive.
+	 * Random access to a remote archive costs a request per entry, so it only pays off when selecting entries.
+	 *
+	 * @param archive        The zip archive.
+	 * @param patternMatcher Pattern of the entries to extract, or null for all entries.
+	 * @return true, if the archive is to be read through the central directory.
+	 * @throws FileSystemException On error determining the capabilities of the file system.
+	 */
+	private boolean useCentralDirectory(FileObject archive, FilePattenMatcher patternMatcher)
+			throws FileSystemException {
+		return archive.getFileSystem().hasCapability(Capability.RANDOM_ACCESS_READ)
+		       && (FileConnectorUtils.isLocal(archive) || patternMatcher != null);
+	}
+
+	/**
+	 * Read the archive entry by entry and extract the matching entries.
+	 *
+	 * @param archive    The archive.
+	 * @param format     Format of the archive.
+	 * @param extraction The extraction in progress.
+	 * @param manager    The file system manager.
+	 * @throws FileSystemException On error opening the archive or creating the folders.
+	 */
+	private void unzipStream(FileObject archive, String format, Extraction extraction,
+	                         StandardFileSystemManager manager) throws FileSystemException {
+		//open the archive
+		InputStream archiveIn = archive.getContent().getInputStream();
+		ArchiveInputStream zipIn = null;
+		try {
+			zipIn = ArchiveStreams.openInput(extraction.budget.countCompressed(archiveIn), format);
+			ArchiveEntry entry = zipIn.getNextEntry();
 
 			// iterates over entries in the zip file
 			while (entry != null) {
-				String filePath = destination + File.separator + entry.getName();
-				// create remote object
-				FileObject remoteFilePath = manager.resolveFile(filePath, opts);
-				if (log.isDebugEnabled()) {
-					log.debug("The created path is " + remoteFilePath.toString());
+				if (!extraction.matches(entry.getName())) {
+					entry = zipIn.getNextEntry();
+					continue;
 				}
-				try {
-					if (!entry.isDirectory()) {
-						// if the entry is a file, extracts it
-						extractFile(zipIn, remoteFilePath);
-					} else {
-						 // if the entry is a directory, make the directory
-						remoteFilePath.createFolder();
-					}
-				} finally {
-					try {
-						zipIn.closeEntry();
-						entry = zipIn.getNextEntry();
-					} catch (IOException e) {
-						log.error("Error while closing the ZipInputStream", e);
+				extraction.budget.addEntry(entry.getName());
+				String name = StringUtils.removeEnd(entry.getName(), "/");
+				if (entry.isDirectory()) {
+					// if the entry is a directory, make the directory
+					createFolder(extraction, name, manager);
+				} else if (ArchiveStreams.isFile(entry)) {
+					createParentFolder(extraction, name, manager);
+					// create remote object
+					FileObject remoteFilePath = extraction.resolve(entry.getName(), manager);
+					if (log.isDebugEnabled()) {
+						log.debug("The created path is " + remoteFilePath.toString());
 					}
+					// if the entry is a file, extracts it
+					extractFile(extraction.budget.countUncompressed(zipIn), remoteFilePath, extraction);
+				} else if (log.isDebugEnabled()) {
+					log.debug("Skipping the link or special file " + entry.getName());
 				}
+				entry = zipIn.getNextEntry();
 			}
 		} catch (IOException e) {
-			throw new SynapseException("Error while reading the next ZIP file entry", e);
+			throw new SynapseException("Error while reading the next archive entry", e);
 		} finally {
-			// close the zip file
+			// close the archive
 			try {
-				zipIn.close();
+				if (zipIn != null) {
+					zipIn.close();
+				} else {
+					archiveIn.close();
+				}
 			} catch (IOException e) {
-				log.error("Error while closing the ZipInputStream", e);
+				log.error("Error while closing the ArchiveInputStream", e);
 			}
-			// close the StandardFileSystemManager
-			manager.close();
+		}
+	}
+
+	/**
+	 * Read the archive entry by entry and upload the matching entries in parallel, while the next entries are being
+	 * inflated. The folders are created once, the first time an entry needs them.
+	 *
+	 * @param archive        The archive.
+	 * @param format         Format of the archive.
+	 * @param extraction     The extraction in progress, to a remote destination.
+	 * @param parallelism    Number of entries uploaded at a time.
+	 * @param spillThreshold Number of bytes of an entry kept in memory before it spills to a temporary file.
+	 * @param manager        The file system manager.
+	 * @throws FileSystemException On error opening the archive or creating the folders.
+	 */
+	private void unzipPipelined(FileObject archive, String format, Extraction extraction, int parallelism,
+	                            int spillThreshold, StandardFileSystemManager manager) throws FileSystemException {
+		InputStream archiveIn = archive.getContent().getInputStream();
+		ArchiveInputStream zipIn = null;
+		EntryUploader uploader = new EntryUploader(extraction.destination, extraction.opts, parallelism,
+		                                           spillThreshold, extraction.created);
+		try {
+			zipIn = ArchiveStreams.openInput(extraction.budget.countCompressed(archiveIn), format);
+			ArchiveEntry entry;
+			while ((entry = zipIn.getNextEntry()) != null) {
+				if (!extraction.matches(entry.getName())) {
+					continue;
+				}
+				extraction.budget.addEntry(entry.getName());
+				String name = StringUtils.removeEnd(entry.getName(), "/");
+				if (entry.isDirectory()) {
+					createFolder(extraction, name, manager);
+				} else if (ArchiveStreams.isFile(entry)) {
+					createParentFolder(extraction, name, manager);
+					uploader.submit(entry.getName(), extraction.budget.countUncompressed(zipIn));
+				} else if (log.isDebugEnabled()) {
+					log.debug("Skipping the link or special file " + entry.getName());
+				}
+			}
+			int uploaded = uploader.finish();
+			if (log.isDebugEnabled()) {
+				log.debug("Uploaded " + uploaded + " entries to " + extraction.destination);
+			}
+		} catch (IOException e) {
+			throw new SynapseException("Error while extracting the archive entries", e);
+		} finally {
+			uploader.close();
 			try {
-				remoteFile.close();
-				remoteDesFile.close();
-			}catch (FileSystemException e){
-				log.error("Error while closing the FileObject", e);
+				if (zipIn != null) {
+					zipIn.close();
+				} else {
+					archiveIn.close();
+				}
+			} catch (IOException e) {
+				log.error("Error while closing the ArchiveInputStream", e);
 			}
 		}
+	}
+
+	/**
+	 * Extract the matching entries of a zip archive located through its central directory. Only the data of those
+	 * entries is read, and the entries are inflated in parallel, each worker with its own access to the archive.
+	 *
+	 * @param archive     The zip archive.
+	 * @param source      Location of the archive.
+	 * @param extraction  The extraction in progress.
+	 * @param parallelism Number of entries extracted at a time.
+	 * @param manager     The file system manager.
+	 * @throws FileSystemException On error creating the folders.
+	 */
+	private void unzipEntries(FileObject archive, final String source, final Extraction extraction, int parallelism,
+	                          StandardFileSystemManager manager) throws FileSystemException {
+		ZipCentralDirectory directory;
+		RandomAccessContent content = archive.getContent().getRandomAccessContent(RandomAccessMode.READ);
+		try {
+			directory = ZipCentralDirectory.read(content);
+		} catch (IOException e) {
+			throw new SynapseException("Error while reading the central directory of " + source, e);
+		} finally {
+			try {
+				content.close();
+			} catch (IOException e) {
+				log.error("Error while closing the RandomAccessContent", e);
+			}
+		}
+		List<ZipCentralDirectory.Entry> files = new ArrayList<>();
+		long declaredSize = 0;
+		try {
+			for (ZipCentralDirectory.Entry entry : directory.getEntries()) {
+				if (extraction.matches(entry.getName())) {
+					extraction.budget.addEntry(entry.getName());
+					if (!entry.isDirectory()) {
+						files.add(entry);
+						declaredSize += entry.getSize();
+					}
+				}
+			}
+			// The budget is checked against the declared sizes before anything is extracted
+			extraction.budget.checkDeclaredSize(declaredSize);
+		} catch (IOException e) {
+			throw new SynapseException("Error while extracting the archive entries", e);
+		}
+		// Folders are created once up front, so that the workers never race to create the same parent
+		for (ZipCentralDirectory.Entry entry : directory.getEntries()) {
+			if (extraction.matches(entry.getName())) {
+				String name = StringUtils.removeEnd(entry.getName(), "/");
+				if (entry.isDirectory()) {
+					createFolder(extraction, name, manager);
+				} else {
+					createParentFolder(extraction, name, manager);
+				}
+			}
+		}
+		int extracted = ParallelFileExecutor.execute(files, parallelism, new ParallelFileExecutor
+				.Task<ZipCentralDirectory.Entry>() {
+			@Override
+			public void execute(ZipCentralDirectory.Entry entry, StandardFileSystemManager workerManager)
+					throws IOException {
+				FileObject workerArchive = workerManager.resolveFile(source, extraction.opts);
+				FileObject remoteFilePath = extraction.resolve(entry.getName(), workerManager);
+				RandomAccessContent workerContent =
+						workerArchive.getContent().getRandomAccessContent(RandomAccessMode.READ);
+				InputStream entryIn = null;
+				try {
+					// Count the compressed bytes actually read, the size declared by the archive is not trusted
+					entryIn = ZipCentralDirectory.openEntry(
+							extraction.budget.countCompressed(ZipCentralDirectory.openCompressed(workerContent, entry)),
+							entry);
+					extractFile(extraction.budget.countUncompressed(entryIn), remoteFilePath, extraction);
+				} finally {
+					IOUtils.closeQuietly(entryIn);
+					workerContent.close();
+				}
+			}
+		});
 		if (log.isDebugEnabled()) {
-			log.debug("File extracted to" + destination);
+			log.debug("Extracted " + extracted + " of " + directory.getEntries().size() + " entries from " + source);
+		}
+	}
+
+	/**
+	 * Create the folder that holds an entry, if the entry is not at the top of the destination.
+	 *
+	 * @param extraction The extraction in progress.
+	 * @param name       Name of the entry.
+	 * @param manager    The file system manager.
+	 * @throws FileSystemException On error creating the folder.
+	 */
+	private void createParentFolder(Extraction extraction, String name, StandardFileSystemManager manager)
+			throws FileSystemException {
+		if (name.lastIndexOf('/') > 0) {
+			createFolder(extraction, name.substring(0, name.lastIndexOf('/')), manager);
+		}
+	}
+
+	/**
+	 * Create a folder under the destination, with its parents, unless it has already been created during this
+	 * extraction. The folders that did not exist before are recorded, so that they can be deleted on failure.
+	 *
+	 * @param extraction The extraction in progress.
+	 * @param name       Path of the folder relative to the destination.
+	 * @param manager    The file system manager.
+	 * @throws FileSystemException On error creating the folder.
+	 */
+	private void createFolder(Extraction extraction, String name, StandardFileSystemManager manager)
+			throws FileSystemException {
+		if (!extraction.folders.add(name)) {
+			return;
+		}
+		createParentFolder(extraction, name, manager);
+		FileObject remoteFolder = extraction.resolve(name, manager);
+		try {
+			if (!remoteFolder.exists()) {
+				remoteFolder.createFolder();
+				extraction.created.add(remoteFolder.getName().getURI());
+			}
+		} finally {
+			remoteFolder.close();
+		}
+	}
+
+	/**
+	 * Delete the files and folders created by a failed extraction, the most recent first. Folders are only deleted
+	 * when they are empty.
+	 *
+	 * @param extraction The failed extraction.
+	 * @param manager    The file system manager.
+	 */
+	private void deleteCreated(Extraction extraction, StandardFileSystemManager manager) {
+		List<String> created = new ArrayList<>(extraction.created);
+		Collections.reverse(created);
+		for (String uri : created) {
+			try {
+				FileObject file = manager.resolveFile(uri, extraction.opts);
+				try {
+					file.delete();
+				} finally {
+					file.close();
+				}
+			} catch (FileSystemException e) {
+				log.error("Error while deleting the partially extracted " + uri, e);
+			}
+		}
+		if (log.isDebugEnabled()) {
+			log.debug("Deleted " + created.size() + " partially extracted files and folders from "
+			          + extraction.destination);
 		}
-		return true;
 	}
 
 	/**
-	 * Extract each zip entry and write it into file.
+	 * Extract each archive entry and write it into file.
 	 *
-	 * @param zipIn          Zip input stream for reading file in the ZIP file format.
+	 * @param zipIn          Archive input stream positioned at the entry.
 	 * @param remoteFilePath Location of file where zip entry needs to be extracted.
+	 * @param extraction     The extraction in progress, which records the file before it is written.
 	 */
-	private void extractFile(ZipInputStream zipIn, FileObject remoteFilePath) {
+	private void extractFile(InputStream zipIn, FileObject remoteFilePath, Extraction extraction) {
 		BufferedOutputStream bos = null;
 		try {
+			extraction.created.add(remoteFilePath.getName().getURI());
 			// open the zip file
 			OutputStream fOut = remoteFilePath.getContent().getOutputStream();
 			bos = new BufferedOutputStream(fOut);
@@ -176,4 +464,34 @@ public class FileUnzipConnector extends AbstractConnector {
 			}
 		}
 	}
+
+	/**
+	 * State of one extraction, shared by the reading thread and the workers.
+	 */
+	private static class Extraction {
+		private final String destination;
+		private final FileSystemOptions opts;
+		private final FilePattenMatcher patternMatcher;
+		private final DecompressionBudget budget;
+		// Folders handled so far, only used by the reading thread
+		private final Set<String> folders = new HashSet<>();
+		// Files and folders that did not exist before, in the order they were created
+		private final Queue<String> created = new ConcurrentLinkedQueue<>();
+
+		Extraction(String destination, FileSystemOptions opts, FilePattenMatcher patternMatcher,
+		           DecompressionBudget budget) {
+			this.destination = destination;
+			this.opts = opts;
+			this.patternMatcher = patternMatcher;
+			this.budget = budget;
+		}
+
+		boolean matches(String name) {
+			return patternMatcher == null || patternMatcher.validate(name);
+		}
+
+		FileObject resolve(String name, StandardFileSystemManager manager) throws FileSystemException {
+			return manager.resolveFile(destination + File.separator + name, opts);
+		}
+	}
 }
\ No newline at end of file
@@ -0,0 +1,350 @@
+/*
+* Copyright (c) 2017, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+*
+* WSO2 Inc. licenses this file to you under the Apache License,
+* Version 2.0 (the "License"); you may not use this file except
+* in compliance with the License.
+* You may obtain a copy of the License at
+*
+*http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package org.wso2.carbon.connector.util;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.commons.vfs2.FileObject;
+import org.apache.commons.vfs2.FileSystemException;
+import org.apache.commons.vfs2.FileSystemOptions;
+import org.apache.commons.vfs2.impl.StandardFileSystemManager;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * An append handle that stays open across calls. It owns its own StandardFileSystemManager, so the session to the
+ * remote server is kept alive until the handle is closed. When a rolling policy is set, the active file is renamed
+ * once the policy says so and a new file is started under the original name. Handles are shared per destination and
+ * file system options, idle handles are closed in the background, and the number of open handles is bounded by
+ * closing the least recently used one.
+ */
+public class AppendHandle {
+	private static final Log log = LogFactory.getLog(AppendHandle.class);
+	private static final ConcurrentMap<List<Object>, AppendHandle> handles = new ConcurrentHashMap<>();
+	private static final ScheduledExecutorService evictor =
+			Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, "file-connector-append-evictor");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+	private static final ExecutorService compressor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, "file-connector-append-compressor");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+	private final List<Object> key;
+	private final String destination;
+	private final FileSystemOptions opts;
+	private volatile RollingPolicy policy;
+	private volatile long lastUsed = System.currentTimeMillis();
+	private boolean evicted;
+	private StandardFileSystemManager manager;
+	private FileObject file;
+	private OutputStream out;
+	private long size;
+	private long segmentStart;
+	private int index;
+
+	static {
+		evictor.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				evictIdle();
+			}
+		}, FileConstants.APPEND_EVICTION_INTERVAL, FileConstants.APPEND_EVICTION_INTERVAL, TimeUnit.MILLISECONDS);
+	}
+
+	private AppendHandle(List<Object> key, String destination, FileSystemOptions opts) {
+		this.key = key;
+		this.destination = destination;
+		this.opts = opts;
+	}
+
+	/**
+	 * Get the key the handle of a destination is shared under. The options are part of the key, so callers with
+	 * different credentials or settings for the same location do not share a session.
+	 *
+	 * @param destination Location of the file to append to.
+	 * @param opts        Configured file system options.
+	 * @return The key.
+	 */
+	public static List<Object> getKey(String destination, FileSystemOptions opts) {
+		return Arrays.<Object>asList(destination, opts);
+	}
+
+	/**
+	 * Write the bytes at the end of the destination through its shared handle, opening the file if it is not open.
+	 *
+	 * @param destination Location of the file to append to.
+	 * @param opts        Configured file system options, used when the file is opened.
+	 * @param policy      Rolling policy of the file, or null to never roll.
+	 * @param bytes       The bytes to write.
+	 * @param offset      Start offset in the bytes.
+	 * @param length      Number of bytes to write.
+	 * @throws IOException On error opening or writing the file. The handle is closed in that case.
+	 */
+	public static void append(String destination, FileSystemOptions opts, RollingPolicy policy, byte[] bytes,
+	                          int offset, int length) throws IOException {
+		List<Object> key = getKey(destination, opts);
+		while (true) {
+			AppendHandle handle = handles.get(key);
+			if (handle == null) {
+				handle = create(key, destination, opts);
+			}
+			handle.policy = policy;
+			if (handle.write(bytes, offset, length)) {
+				return;
+			}
+			// The handle was evicted after it was looked up, retry with a new one
+		}
+	}
+
+	/**
+	 * Close every shared handle. Called when the connector is undeployed.
+	 */
+	public static void closeAll() {
+		for (List<Object> key : handles.keySet()) {
+			AppendHandle handle = handles.remove(key);
+			if (handle != null) {
+				handle.evict();
+			}
+		}
+	}
+
+	/**
+	 * Create the shared handle of the key, closing the least recently used handle when too many are open.
+	 *
+	 * @param key         The key of the handle.
+	 * @param destination Location of the file to append to.
+	 * @param opts        Configured file system options.
+	 * @return The shared handle.
+	 */
+	private static AppendHandle create(List<Object> key, String destination, FileSystemOptions opts) {
+		synchronized (handles) {
+			AppendHandle handle = handles.get(key);
+			if (handle != null) {
+				return handle;
+			}
+			while (handles.size() >= FileConstants.APPEND_MAX_HANDLES) {
+				AppendHandle eldest = null;
+				for (AppendHandle candidate : handles.values()) {
+					if (eldest == null || candidate.lastUsed < eldest.lastUsed) {
+						eldest = candidate;
+					}
+				}
+				if (eldest == null) {
+					break;
+				}
+				if (handles.remove(eldest.key, eldest)) {
+					eldest.evict();
+				}
+			}
+			handle = new AppendHandle(key, destination, opts);
+			handles.put(key, handle);
+			return handle;
+		}
+	}
+
+	private static void evictIdle() {
+		long idleBefore = System.currentTimeMillis() - FileConstants.APPEND_IDLE_TIMEOUT;
+		for (AppendHandle handle : handles.values()) {
+			// Only the thread that removes the handle closes it
+			if (handle.lastUsed < idleBefore && handles.remove(handle.key, handle)) {
+				handle.evict();
+			}
+		}
+	}
+
+	/**
+	 * Write the bytes at the end of the file, opening the file if it is not open yet.
+	 *
+	 * @param bytes  The bytes to write.
+	 * @param offset Start offset in the bytes.
+	 * @param length Number of bytes to write.
+	 * @return false, if the handle has been evicted and nothing was written.
+	 * @throws IOException On error opening or writing the file. The handle is closed in that case.
+	 */
+	private synchronized boolean write(byte[] bytes, int offset, int length) throws IOException {
+		if (evicted) {
+			return false;
+		}
+		lastUsed = System.currentTimeMillis();
+		try {
+			if (out == null) {
+				open();
+			}
+			RollingPolicy rollingPolicy = policy;
+			if (rollingPolicy != null && rollingPolicy.shouldRoll(size, length, segmentStart)) {
+				roll(rollingPolicy);
+			}
+			out.write(bytes, offset, length);
+			out.flush();
+			size += length;
+			return true;
+		} catch (IOException e) {
+			close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Close the handle for good, once it has been removed from the shared handles.
+	 */
+	private synchronized void evict() {
+		evicted = true;
+		close();
+		if (log.isDebugEnabled()) {
+			log.debug("Closed the append handle of " + destination);
+		}
+	}
+
+	/**
+	 * Close the file and the session. The handle is opened again by the next write.
+	 */
+	private synchronized void close() {
+		closeStream();
+		if (file != null) {
+			try {
+				file.close();
+			} catch (FileSystemException e) {
+				log.error("Error while closing FileObject", e);
+			}
+			file = null;
+		}
+		if (manager != null) {
+			manager.close();
+			manager = null;
+		}
+	}
+
+	/**
+	 * Open the file for appending.
+	 *
+	 * @throws FileSystemException On error resolving or creating the file.
+	 */
+	private void open() throws FileSystemException {
+		if (manager == null) {
+			manager = FileConnectorUtils.getManager();
+			file = manager.resolveFile(destination, opts);
+		}
+		if (!file.exists()) {
+			file.createFile();
+		}
+		// The size can not be read while the output stream is open, so it is tracked from here on
+		size = file.getContent().getSize();
+		segmentStart = System.currentTimeMillis();
+		// True, if the content should be appended.
+		out = file.getContent().getOutputStream(true);
+		if (log.isDebugEnabled()) {
+			log.debug("Opened append handle for " + file.getName().getFriendlyURI());
+		}
+	}
+
+	/**
+	 * Rename the active file and start a new one under the original name.
+	 *
+	 * @param rollingPolicy The rolling policy.
+	 * @throws IOException On error renaming the file or opening the new one.
+	 */
+	private void roll(RollingPolicy rollingPolicy) throws IOException {
+		closeStream();
+		FileObject parent = file.getParent();
+		FileObject rolled;
+		FileObject compressed;
+		do {
+			String name = rollingPolicy.getRolledName(file.getName().getBaseName(), segmentStart, ++index);
+			rolled = parent.resolveFile(name);
+			compressed = parent.resolveFile(name + FileConstants.GZIP_EXTENSION);
+		} while (rolled.exists() || compressed.exists());
+		file.moveTo(rolled);
+		if (log.isDebugEnabled()) {
+			log.debug("Rolled " + file.getName().getFriendlyURI() + " to " + rolled.getName().getBaseName());
+		}
+		if (rollingPolicy.isCompress()) {
+			compress(rolled.getName().getURI(), compressed.getName().getURI());
+		}
+		rolled.close();
+		compressed.close();
+		open();
+	}
+
+	/**
+	 * Gzip the rolled file in the background, so the writers are not held up, and delete it afterwards.
+	 *
+	 * @param source Location of the rolled file.
+	 * @param target Location of the compressed file.
+	 */
+	private void compress(final String source, final String target) {
+		compressor.execute(new Runnable() {
+			@Override
+			public void run() {
+				StandardFileSystemManager compressManager = FileConnectorUtils.getManager();
+				InputStream in = null;
+				OutputStream gzip = null;
+				try {
+					FileObject sourceFile = compressManager.resolveFile(source, opts);
+					FileObject targetFile = compressManager.resolveFile(target, opts);
+					in = sourceFile.getContent().getInputStream();
+					gzip = new GZIPOutputStream(targetFile.getContent().getOutputStream());
+					IOUtils.copy(in, gzip);
+					gzip.close();
+					gzip = null;
+					in.close();
+					in = null;
+					sourceFile.delete();
+				} catch (IOException e) {
+					log.error("Error while compressing the rolled file " + source, e);
+				} finally {
+					IOUtils.closeQuietly(in);
+					IOUtils.closeQuietly(gzip);
+					compressManager.close();
+				}
+			}
+		});
+	}
+
+	private void closeStream() {
+		if (out != null) {
+			try {
+				out.close();
+			} catch (IOException e) {
+				log.error("Error while closing OutputStream", e);
+			}
+			out = null;
+		}
+	}
+}
\ No newline at end of file
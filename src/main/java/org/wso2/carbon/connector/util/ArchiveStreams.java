@@ -0,0 +1,200 @@
+/*
+* Copyright (c) 2017, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+*
+* WSO2 Inc. licenses this file to you under the Apache License,
+* Version 2.0 (the "License"); you may not use this file except
+* in compliance with the License.
+* You may obtain a copy of the License at
+*
+*http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package org.wso2.carbon.connector.util;
+
+import org.apache.commons.compress.archivers.ArchiveEntry;
+import org.apache.commons.compress.archivers.ArchiveInputStream;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.apache.commons.compress.archivers.zip.ZipArchiveInputStream;
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorOutputStream;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorInputStream;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorOutputStream;
+import org.apache.commons.compress.compressors.gzip.GzipParameters;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.commons.vfs2.FileObject;
+import org.apache.synapse.SynapseException;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Opens archives of the supported formats, zip, tar, tar.gz and tar.bz2, as streams. The archives are read and written
+ * entry by entry, so they never have to fit in memory or be copied to the local file system.
+ */
+public class ArchiveStreams {
+	private static final Log log = LogFactory.getLog(ArchiveStreams.class);
+
+	private ArchiveStreams() {
+	}
+
+	/**
+	 * Get the format of an archive, from the format parameter or else from the extension of the archive name.
+	 *
+	 * @param fileName The name of the archive.
+	 * @param format   The configured format, or empty to detect it from the name.
+	 * @return zip, tar, tar.gz or tar.bz2.
+	 */
+	public static String getFormat(String fileName, String format) {
+		if (StringUtils.isNotEmpty(format)) {
+			format = format.trim().toLowerCase(Locale.ENGLISH);
+			if (FileConstants.FORMAT_ZIP.equals(format) || FileConstants.FORMAT_TAR.equals(format)
+			    || FileConstants.FORMAT_TAR_GZ.equals(format) || FileConstants.FORMAT_TAR_BZ2.equals(format)) {
+				return format;
+			}
+			throw new SynapseException("Unsupported archive format: " + format);
+		}
+		String name = fileName.toLowerCase(Locale.ENGLISH);
+		if (name.endsWith(".tar.gz") || name.endsWith(".tgz")) {
+			return FileConstants.FORMAT_TAR_GZ;
+		}
+		if (name.endsWith(".tar.bz2") || name.endsWith(".tbz2")) {
+			return FileConstants.FORMAT_TAR_BZ2;
+		}
+		if (name.endsWith(".tar")) {
+			return FileConstants.FORMAT_TAR;
+		}
+		return FileConstants.FORMAT_ZIP;
+	}
+
+	/**
+	 * Open an archive for reading.
+	 *
+	 * @param in     Stream of the archive.
+	 * @param format Format of the archive.
+	 * @return Stream of the archive entries.
+	 * @throws IOException On error reading the header of the compressed tar.
+	 */
+	public static ArchiveInputStream openInput(InputStream in, String format) throws IOException {
+		return openInput(in, format, null);
+	}
+
+	/**
+	 * Open an archive for reading, counting the decompressed bytes of a tar archive against the budget. The bytes of
+	 * a zip archive are compressed per entry, so they are counted on the content of the entries instead.
+	 *
+	 * @param in     Stream of the archive.
+	 * @param format Format of the archive.
+	 * @param budget Budget the decompressed tar stream is counted against, or null to not count it.
+	 * @return Stream of the archive entries.
+	 * @throws IOException On error reading the header of the compressed tar.
+	 */
+	public static ArchiveInputStream openInput(InputStream in, String format, DecompressionBudget budget)
+			throws IOException {
+		InputStream buffered = new BufferedInputStream(in, FileConstants.ARCHIVE_BUFFER_SIZE);
+		InputStream tar;
+		switch (format) {
+			case FileConstants.FORMAT_TAR:
+				tar = buffered;
+				break;
+			case FileConstants.FORMAT_TAR_GZ:
+				// Concatenated gzip members are read as a single stream, like gunzip does
+				tar = new GzipCompressorInputStream(buffered, true);
+				break;
+			case FileConstants.FORMAT_TAR_BZ2:
+				tar = new BZip2CompressorInputStream(buffered, true);
+				break;
+			default:
+				// Zip64 entries are read from their local headers, and stored entries may have data descriptors
+				return new ZipArchiveInputStream(buffered, StandardCharsets.UTF_8.name(), true, true);
+		}
+		return new TarArchiveInputStream(budget != null ? budget.countUncompressed(tar) : tar);
+	}
+
+	/**
+	 * Open a tar archive for writing. Long names and large sizes are written with POSIX extensions.
+	 *
+	 * @param out              Stream to write the archive to.
+	 * @param format           tar, tar.gz or tar.bz2.
+	 * @param compressionLevel Gzip level from 0 to 9, or -1 for the default level.
+	 * @return Stream to write the archive entries to.
+	 * @throws IOException On error writing the header of the compressed tar.
+	 */
+	public static TarArchiveOutputStream openTarOutput(OutputStream out, String format, int compressionLevel)
+			throws IOException {
+		OutputStream buffered = new BufferedOutputStream(out, FileConstants.ARCHIVE_BUFFER_SIZE);
+		OutputStream compressed;
+		if (FileConstants.FORMAT_TAR_GZ.equals(format)) {
+			GzipParameters parameters = new GzipParameters();
+			parameters.setCompressionLevel(compressionLevel);
+			compressed = new GzipCompressorOutputStream(buffered, parameters);
+		} else if (FileConstants.FORMAT_TAR_BZ2.equals(format)) {
+			compressed = new BZip2CompressorOutputStream(buffered);
+		} else {
+			compressed = buffered;
+		}
+		TarArchiveOutputStream tar = new TarArchiveOutputStream(compressed);
+		tar.setLongFileMode(TarArchiveOutputStream.LONGFILE_POSIX);
+		tar.setBigNumberMode(TarArchiveOutputStream.BIGNUMBER_POSIX);
+		return tar;
+	}
+
+	/**
+	 * Add the files to a tar archive. Entry names are the paths of the files relative to the root folder.
+	 *
+	 * @param root  The folder the entry names are relative to.
+	 * @param files The files to add.
+	 * @param tar   The archive to write to.
+	 * @throws IOException On error reading a file or writing the archive.
+	 */
+	public static void writeTar(FileObject root, List<FileObject> files, TarArchiveOutputStream tar)
+			throws IOException {
+		for (FileObject file : files) {
+			InputStream in = null;
+			try {
+				TarArchiveEntry entry = new TarArchiveEntry(ZipArchiveBuilder.getEntryName(root, file));
+				entry.setSize(file.getContent().getSize());
+				entry.setModTime(file.getContent().getLastModifiedTime());
+				in = file.getContent().getInputStream();
+				tar.putArchiveEntry(entry);
+				IOUtils.copy(in, tar);
+				tar.closeArchiveEntry();
+			} finally {
+				IOUtils.closeQuietly(in);
+				file.close();
+			}
+		}
+		if (log.isDebugEnabled()) {
+			log.debug("Added " + files.size() + " entries to the tar archive.");
+		}
+	}
+
+	/**
+	 * Check whether an entry holds file content. Links and special files of tar archives are not extracted.
+	 *
+	 * @param entry The archive entry.
+	 * @return true, if the entry is a regular file.
+	 */
+	public static boolean isFile(ArchiveEntry entry) {
+		if (entry instanceof TarArchiveEntry) {
+			return ((TarArchiveEntry) entry).isFile();
+		}
+		return !entry.isDirectory();
+	}
+}
\ No newline at end of file
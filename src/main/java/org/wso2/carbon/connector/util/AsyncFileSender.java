@@ -0,0 +1,271 @@
+/*
+* Copyright (c) 2017, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+*
+* WSO2 Inc. licenses this file to you under the Apache License,
+* Version 2.0 (the "License"); you may not use this file except
+* in compliance with the License.
+* You may obtain a copy of the License at
+*
+*http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package org.wso2.carbon.connector.util;
+
+import org.apache.axiom.om.OMAbstractFactory;
+import org.apache.axis2.AxisFault;
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.lang.exception.ExceptionUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.commons.vfs2.FileSystemOptions;
+import org.apache.commons.vfs2.impl.StandardFileSystemManager;
+import org.apache.synapse.Mediator;
+import org.apache.synapse.MessageContext;
+import org.apache.synapse.SynapseConstants;
+import org.apache.synapse.core.SynapseEnvironment;
+import org.apache.synapse.mediators.base.SequenceMediator;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Write-behind delivery for the send operation. The message body is copied into a snapshot, and a dedicated pool of
+ * writers delivers the snapshot to the destination. When the queue of the pool is full, the caller delivers the
+ * snapshot itself, which slows the producers down instead of growing the queue without a bound. The snapshots queued in
+ * memory are bounded in bytes as well, a snapshot that does not fit is spilled to a temporary file before it is
+ * queued. The pool is drained when the connector is destroyed, and created again by the next send.
+ */
+public class AsyncFileSender {
+	private static final Log log = LogFactory.getLog(AsyncFileSender.class);
+	private static final AtomicInteger pending = new AtomicInteger();
+	private static final AtomicLong queuedMemory = new AtomicLong();
+	private static ThreadPoolExecutor writers;
+
+	private AsyncFileSender() {
+	}
+
+	/**
+	 * Queue the snapshot of the message body for delivery. The snapshot is deleted once it has been delivered.
+	 *
+	 * @param messageContext The message context that is used in file send mediation flow.
+	 * @param snapshot       Snapshot of the message body.
+	 * @param destination    Location of the destination file or folder.
+	 * @param append         Whether to append to the destination file.
+	 * @param faultSequence  Sequence to inject a message into when the delivery fails, or null.
+	 * @return Number of sends waiting to be delivered, including this one.
+	 */
+	public static int submit(MessageContext messageContext, MessageSnapshot snapshot, String destination,
+	                         boolean append, String faultSequence) {
+		Delivery delivery = new Delivery(snapshot, reserveMemory(snapshot), destination, append,
+		                                 FileConnectorUtils.init(messageContext),
+		                                 FileConnectorUtils.getPipelinedTransfer(messageContext),
+		                                 messageContext.getEnvironment(), faultSequence);
+		int depth = pending.incrementAndGet();
+		getWriters().execute(delivery);
+		return depth;
+	}
+
+	/**
+	 * Stop accepting sends and wait until the queued sends are delivered. Sends that are still queued when the wait
+	 * times out are dropped, and their snapshots are deleted.
+	 */
+	public static void shutdown() {
+		ThreadPoolExecutor current;
+		synchronized (AsyncFileSender.class) {
+			current = writers;
+			writers = null;
+		}
+		if (current == null) {
+			return;
+		}
+		current.shutdown();
+		try {
+			if (current.awaitTermination(FileConstants.ASYNC_SEND_DRAIN_TIMEOUT, TimeUnit.MILLISECONDS)) {
+				return;
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		List<Runnable> dropped = current.shutdownNow();
+		for (Runnable delivery : dropped) {
+			((Delivery) delivery).discard();
+		}
+		log.error("Dropped " + dropped.size() + " asynchronous file sends that were not delivered before shutdown");
+	}
+
+	/**
+	 * Reserve the memory of the snapshot for as long as it is queued. A snapshot that would take the queued snapshots
+	 * over the memory limit is spilled to a temporary file instead.
+	 *
+	 * @param snapshot Snapshot of the message body.
+	 * @return Number of bytes reserved, to be released once the snapshot is deleted.
+	 */
+	private static long reserveMemory(MessageSnapshot snapshot) {
+		long size = snapshot.getMemorySize();
+		if (size == 0) {
+			return 0;
+		}
+		if (queuedMemory.addAndGet(size) <= FileConstants.ASYNC_SEND_MAX_MEMORY) {
+			return size;
+		}
+		queuedMemory.addAndGet(-size);
+		try {
+			snapshot.spill();
+			return 0;
+		} catch (IOException e) {
+			// The snapshot is delivered from memory all the same, rather than failing the send
+			log.warn("Unable to spill the snapshot of an asynchronous send to a temporary file", e);
+			queuedMemory.addAndGet(size);
+			return size;
+		}
+	}
+
+	private static synchronized ThreadPoolExecutor getWriters() {
+		if (writers == null) {
+			writers = createWriters();
+		}
+		return writers;
+	}
+
+	/**
+	 * Create the writer pool. Its queue is bounded, and once it is full, or once the pool is shut down while the
+	 * send is submitted, the caller delivers the snapshot itself.
+	 *
+	 * @return The writer pool.
+	 */
+	private static ThreadPoolExecutor createWriters() {
+		ThreadFactory threadFactory = new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "file-connector-async-send-" + count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		};
+		return new ThreadPoolExecutor(FileConstants.ASYNC_SEND_WRITERS, FileConstants.ASYNC_SEND_WRITERS, 0,
+		                              TimeUnit.MILLISECONDS,
+		                              new ArrayBlockingQueue<Runnable>(FileConstants.ASYNC_SEND_QUEUE_CAPACITY),
+		                              threadFactory, new RejectedExecutionHandler() {
+			@Override
+			public void rejectedExecution(Runnable delivery, ThreadPoolExecutor executor) {
+				delivery.run();
+			}
+		});
+	}
+
+	/**
+	 * Get the number of sends that are queued or being delivered.
+	 *
+	 * @return The queue depth.
+	 */
+	public static int getQueueDepth() {
+		return pending.get();
+	}
+
+	/**
+	 * Delivery of a single snapshot.
+	 */
+	private static class Delivery implements Runnable {
+		private final MessageSnapshot snapshot;
+		private final long memorySize;
+		private final String destination;
+		private final boolean append;
+		private final FileSystemOptions opts;
+		private final PipelinedTransfer pipeline;
+		private final SynapseEnvironment environment;
+		private final String faultSequence;
+
+		Delivery(MessageSnapshot snapshot, long memorySize, String destination, boolean append, FileSystemOptions opts,
+		         PipelinedTransfer pipeline, SynapseEnvironment environment, String faultSequence) {
+			this.snapshot = snapshot;
+			this.memorySize = memorySize;
+			this.destination = destination;
+			this.append = append;
+			this.opts = opts;
+			this.pipeline = pipeline;
+			this.environment = environment;
+			this.faultSequence = faultSequence;
+		}
+
+		@Override
+		public void run() {
+			try {
+				deliver();
+			} catch (IOException | RuntimeException e) {
+				log.error("Error while delivering the file asynchronously", e);
+				routeFault(e);
+			} finally {
+				discard();
+			}
+		}
+
+		/**
+		 * Delete the snapshot, once it is delivered or when the delivery is dropped.
+		 */
+		void discard() {
+			pending.decrementAndGet();
+			queuedMemory.addAndGet(-memorySize);
+			snapshot.delete();
+		}
+
+		/**
+		 * Write the snapshot to the destination.
+		 *
+		 * @throws IOException On error writing the destination.
+		 */
+		private void deliver() throws IOException {
+			StandardFileSystemManager manager = FileConnectorUtils.getManager();
+			try {
+				String target = snapshot.writeTo(manager, destination, opts, append, pipeline);
+				if (log.isDebugEnabled()) {
+					log.debug("Asynchronous file send completed to " + target);
+				}
+			} finally {
+				manager.close();
+			}
+		}
+
+		/**
+		 * Inject a new message describing the failure into the fault sequence.
+		 *
+		 * @param e The failure.
+		 */
+		private void routeFault(Exception e) {
+			if (StringUtils.isEmpty(faultSequence) || environment == null) {
+				return;
+			}
+			Mediator sequence = environment.getSynapseConfiguration().getSequence(faultSequence);
+			if (!(sequence instanceof SequenceMediator)) {
+				log.error("The fault sequence " + faultSequence + " is not found");
+				return;
+			}
+			MessageContext faultContext = environment.createMessageContext();
+			try {
+				faultContext.setEnvelope(OMAbstractFactory.getSOAP11Factory().getDefaultEnvelope());
+			} catch (AxisFault axisFault) {
+				log.error("Unable to create the message for the fault sequence", axisFault);
+				return;
+			}
+			faultContext.setProperty(SynapseConstants.ERROR_MESSAGE, e.getMessage());
+			faultContext.setProperty(SynapseConstants.ERROR_DETAIL, ExceptionUtils.getStackTrace(e));
+			faultContext.setProperty(SynapseConstants.ERROR_EXCEPTION, e);
+			faultContext.setProperty(FileConstants.ASYNC_SEND_DESTINATION, destination);
+			environment.injectAsync(faultContext, (SequenceMediator) sequence);
+		}
+	}
+}
\ No newline at end of file
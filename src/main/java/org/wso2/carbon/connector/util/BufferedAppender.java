@@ -0,0 +1,249 @@
+/*
+* Copyright (c) 2017, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+*
+* WSO2 Inc. licenses this file to you under the Apache License,
+* Version 2.0 (the "License"); you may not use this file except
+* in compliance with the License.
+* You may obtain a copy of the License at
+*
+*http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package org.wso2.carbon.connector.util;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.commons.vfs2.FileSystemOptions;
+import org.apache.synapse.SynapseException;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Group-commit appender. Appends to the same destination are collected in memory and written with a single write
+ * over a kept-open handle once the buffer reaches the flush size, or by a background flusher once the flush interval
+ * has elapsed. Callers that need durability can wait until their data has been flushed.
+ */
+public class BufferedAppender {
+	private static final Log log = LogFactory.getLog(BufferedAppender.class);
+	private static final ConcurrentMap<List<Object>, Destination> destinations = new ConcurrentHashMap<>();
+	private static final ScheduledExecutorService flusher =
+			Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, "file-connector-append-flusher");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+
+	private BufferedAppender() {
+	}
+
+	/**
+	 * Buffer the content for the destination.
+	 *
+	 * @param destination   Location of the file to append to.
+	 * @param opts          Configured file system options, used when the destination is opened.
+	 * @param content       The content to append.
+	 * @param policy        Rolling policy of the destination, or null to never roll.
+	 * @param flushSize     Number of buffered bytes that triggers a flush.
+	 * @param flushInterval Maximum time in milliseconds the content stays in the buffer.
+	 * @param waitForFlush  Whether to wait until the content has been written to the file.
+	 */
+	public static void append(String destination, FileSystemOptions opts, byte[] content,
+	                          RollingPolicy policy, int flushSize, long flushInterval, boolean waitForFlush) {
+		List<Object> key = AppendHandle.getKey(destination, opts);
+		while (true) {
+			Destination target = destinations.get(key);
+			if (target == null) {
+				Destination created = new Destination(key, destination, opts, policy, flushSize);
+				target = destinations.putIfAbsent(key, created);
+				if (target == null) {
+					target = created;
+					target.schedule(flushInterval);
+				}
+			}
+			long sequence = target.append(content);
+			if (sequence < 0) {
+				// The destination was closed by the flusher while idle, retry with a new one
+				continue;
+			}
+			if (waitForFlush) {
+				target.awaitFlush(sequence);
+			}
+			return;
+		}
+	}
+
+	/**
+	 * Flush and close every destination. Called when the connector is undeployed.
+	 */
+	public static void flushAll() {
+		for (List<Object> key : destinations.keySet()) {
+			Destination target = destinations.remove(key);
+			if (target != null) {
+				target.close();
+			}
+		}
+	}
+
+	/**
+	 * Buffered content of a single destination.
+	 */
+	private static class Destination implements Runnable {
+		private final List<Object> key;
+		private final String destination;
+		private final FileSystemOptions opts;
+		private final RollingPolicy policy;
+		private final int flushSize;
+		private final Object flushLock = new Object();
+		private ByteArrayOutputStream pending = new ByteArrayOutputStream();
+		private long appended;
+		private long flushed;
+		private long failedAfter;
+		private long failedUpTo;
+		private IOException failure;
+		private int idleRuns;
+		private boolean closed;
+		private ScheduledFuture<?> schedule;
+
+		Destination(List<Object> key, String destination, FileSystemOptions opts, RollingPolicy policy,
+		            int flushSize) {
+			this.key = key;
+			this.destination = destination;
+			this.opts = opts;
+			this.policy = policy;
+			this.flushSize = flushSize;
+		}
+
+		void schedule(long flushInterval) {
+			schedule = flusher.scheduleWithFixedDelay(this, flushInterval, flushInterval, TimeUnit.MILLISECONDS);
+		}
+
+		/**
+		 * Buffer the content and flush if the buffer is full.
+		 *
+		 * @param content The content to append.
+		 * @return Sequence number of the content, or -1 if the destination is already closed.
+		 */
+		long append(byte[] content) {
+			long sequence;
+			boolean full;
+			synchronized (this) {
+				if (closed) {
+					return -1;
+				}
+				pending.write(content, 0, content.length);
+				sequence = ++appended;
+				idleRuns = 0;
+				full = pending.size() >= flushSize;
+			}
+			if (full) {
+				flush();
+			}
+			return sequence;
+		}
+
+		/**
+		 * Write everything buffered so far with a single write.
+		 */
+		void flush() {
+			synchronized (flushLock) {
+				byte[] batch;
+				long upTo;
+				synchronized (this) {
+					if (pending.size() == 0) {
+						return;
+					}
+					batch = pending.toByteArray();
+					upTo = appended;
+					pending = new ByteArrayOutputStream();
+				}
+				IOException error = null;
+				try {
+					AppendHandle.append(destination, opts, policy, batch, 0, batch.length);
+				} catch (IOException e) {
+					log.error("Error while flushing " + batch.length + " buffered bytes", e);
+					error = e;
+				}
+				synchronized (this) {
+					if (error != null) {
+						// Every caller whose content was part of this batch is told about the failure
+						failedAfter = flushed;
+						failedUpTo = upTo;
+						failure = error;
+					}
+					flushed = upTo;
+					notifyAll();
+				}
+			}
+		}
+
+		/**
+		 * Wait until the content with the given sequence number has been flushed.
+		 *
+		 * @param sequence Sequence number of the content.
+		 */
+		synchronized void awaitFlush(long sequence) {
+			try {
+				while (flushed < sequence) {
+					wait();
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new SynapseException("Interrupted while waiting for the append to be flushed", e);
+			}
+			if (failure != null && sequence > failedAfter && sequence <= failedUpTo) {
+				throw new SynapseException("Error while appending content", failure);
+			}
+		}
+
+		/**
+		 * Background flush. Closes the destination after it has been idle for a while. The session itself is
+		 * released by the idle eviction of the append handle.
+		 */
+		@Override
+		public void run() {
+			try {
+				flush();
+				boolean idle;
+				synchronized (this) {
+					idle = ++idleRuns > FileConstants.APPEND_IDLE_RUNS && pending.size() == 0;
+				}
+				if (idle && destinations.remove(key, this)) {
+					close();
+				}
+			} catch (RuntimeException e) {
+				log.error("Error in the append flusher", e);
+			}
+		}
+
+		/**
+		 * Flush the remaining content and stop the background flush.
+		 */
+		void close() {
+			synchronized (this) {
+				closed = true;
+			}
+			flush();
+			if (schedule != null) {
+				schedule.cancel(false);
+			}
+		}
+	}
+}
\ No newline at end of file
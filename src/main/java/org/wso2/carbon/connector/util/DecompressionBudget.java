@@ -0,0 +1,170 @@
+/*
+* Copyright (c) 2017, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+*
+* WSO2 Inc. licenses this file to you under the Apache License,
+* Version 2.0 (the "License"); you may not use this file except
+* in compliance with the License.
+* You may obtain a copy of the License at
+*
+*http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package org.wso2.carbon.connector.util;
+
+import org.apache.commons.io.input.ProxyInputStream;
+import org.apache.synapse.MessageContext;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Limits the resources one archive may use while it is decompressed: the number of entries, the uncompressed bytes,
+ * the ratio of uncompressed to compressed bytes and the elapsed time. The limits are checked while the streams are
+ * read, so a hostile archive is stopped as soon as it crosses one, not after it has been inflated. Once a limit is
+ * exceeded every further check fails too, so all the workers sharing the budget stop.
+ */
+public class DecompressionBudget {
+	private final long maxBytes;
+	private final int maxEntries;
+	private final int maxRatio;
+	private final long deadline;
+	private final AtomicLong compressed = new AtomicLong();
+	private final AtomicLong uncompressed = new AtomicLong();
+	private final AtomicInteger entries = new AtomicInteger();
+	private final AtomicReference<String> exceeded = new AtomicReference<>();
+
+	/**
+	 * @param maxBytes   Maximum number of uncompressed bytes, 0 for no limit.
+	 * @param maxEntries Maximum number of entries, 0 for no limit.
+	 * @param maxRatio   Maximum ratio of uncompressed to compressed bytes, 0 for no limit.
+	 * @param maxTime    Maximum time in milliseconds, 0 for no limit.
+	 */
+	public DecompressionBudget(long maxBytes, int maxEntries, int maxRatio, long maxTime) {
+		this.maxBytes = maxBytes;
+		this.maxEntries = maxEntries;
+		this.maxRatio = maxRatio;
+		this.deadline = maxTime > 0 ? System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxTime) : 0;
+	}
+
+	/**
+	 * Create the budget configured by the template parameters. Limits that are not set are not enforced.
+	 *
+	 * @param messageContext The message context that is used in the mediation flow.
+	 * @return The budget, started now.
+	 */
+	public static DecompressionBudget create(MessageContext messageContext) {
+		return new DecompressionBudget(
+				FileConnectorUtils.getLongParameter(messageContext, FileConstants.MAX_UNCOMPRESSED_SIZE, 0),
+				FileConnectorUtils.getIntParameter(messageContext, FileConstants.MAX_ENTRIES, 0),
+				FileConnectorUtils.getIntParameter(messageContext, FileConstants.MAX_COMPRESSION_RATIO, 0),
+				FileConnectorUtils.getLongParameter(messageContext, FileConstants.MAX_DURATION, 0));
+	}
+
+	/**
+	 * Count the compressed bytes read from the archive, checking the time on every read.
+	 *
+	 * @param in Stream of the archive, or of the compressed data of an entry.
+	 * @return The counting stream.
+	 */
+	public InputStream countCompressed(InputStream in) {
+		return new ProxyInputStream(in) {
+			@Override
+			protected void afterRead(int n) throws IOException {
+				if (n > 0) {
+					compressed.addAndGet(n);
+				}
+				checkTime();
+			}
+		};
+	}
+
+	/**
+	 * Count the uncompressed bytes of an entry, checking every limit on every read. Skipped bytes are decompressed
+	 * all the same, so they are counted too, a buffer at a time.
+	 *
+	 * @param in Stream of the entry content, or of a decompressed archive.
+	 * @return The counting stream.
+	 */
+	public InputStream countUncompressed(InputStream in) {
+		return new ProxyInputStream(in) {
+			@Override
+			public long skip(long n) throws IOException {
+				long skipped = super.skip(Math.min(n, FileConstants.ARCHIVE_BUFFER_SIZE));
+				afterRead((int) skipped);
+				return skipped;
+			}
+
+			@Override
+			protected void afterRead(int n) throws IOException {
+				if (n > 0) {
+					addUncompressed(n);
+				}
+				checkTime();
+			}
+		};
+	}
+
+	/**
+	 * Count an entry of the archive.
+	 *
+	 * @param name Name of the entry.
+	 * @throws IOException If the number of entries or the time is exceeded.
+	 */
+	public void addEntry(String name) throws IOException {
+		int count = entries.incrementAndGet();
+		if (maxEntries > 0 && count > maxEntries) {
+			fail("more than " + maxEntries + " entries, at " + name);
+		}
+		checkTime();
+	}
+
+	/**
+	 * Check the sizes declared by the archive before any entry is extracted. The declared sizes can not be trusted
+	 * to be small enough, so the actual bytes are counted as well.
+	 *
+	 * @param bytes Total declared uncompressed size of the entries to extract.
+	 * @throws IOException If the declared size exceeds the maximum.
+	 */
+	public void checkDeclaredSize(long bytes) throws IOException {
+		if (maxBytes > 0 && bytes > maxBytes) {
+			fail("the entries declare " + bytes + " uncompressed bytes, more than " + maxBytes);
+		}
+	}
+
+	private void addUncompressed(long bytes) throws IOException {
+		long total = uncompressed.addAndGet(bytes);
+		if (maxBytes > 0 && total > maxBytes) {
+			fail("more than " + maxBytes + " uncompressed bytes");
+		}
+		// Small archives are not checked, since headers and padding make their ratio meaningless
+		if (maxRatio > 0 && total > FileConstants.RATIO_GRACE_SIZE
+		    && total > (double) maxRatio * Math.max(1, compressed.get())) {
+			fail("a compression ratio over " + maxRatio + " (" + total + " bytes from " + compressed.get() + ")");
+		}
+	}
+
+	private void checkTime() throws IOException {
+		String reason = exceeded.get();
+		if (reason != null) {
+			throw new IOException("Decompression budget exceeded: " + reason);
+		}
+		if (deadline != 0 && System.nanoTime() - deadline > 0) {
+			fail("the time limit has passed");
+		}
+	}
+
+	private void fail(String reason) throws IOException {
+		exceeded.compareAndSet(null, reason);
+		throw new IOException("Decompression budget exceeded: " + exceeded.get());
+	}
+}
\ No newline at end of file
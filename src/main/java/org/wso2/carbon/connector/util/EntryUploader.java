@@ -0,0 +1,231 @@
+/*
+* Copyright (c) 2017, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+*
+* WSO2 Inc. licenses this file to you under the Apache License,
+* Version 2.0 (the "License"); you may not use this file except
+* in compliance with the License.
+* You may obtain a copy of the License at
+*
+*http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package org.wso2.carbon.connector.util;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.commons.vfs2.FileObject;
+import org.apache.commons.vfs2.FileSystemOptions;
+import org.apache.commons.vfs2.impl.StandardFileSystemManager;
+import org.apache.synapse.SynapseException;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Uploads the entries of an archive while the archive is still being read. The reading thread inflates each entry
+ * into a buffer that spills to a temporary file beyond a threshold, and a fixed set of workers upload the buffers.
+ * Every worker keeps its own file system manager, so its session to the destination is reused for all its entries.
+ * The number of entries waiting for upload is bounded, so the reader blocks when the uploads fall behind.
+ */
+public class EntryUploader implements Closeable {
+	private static final Log log = LogFactory.getLog(EntryUploader.class);
+	private final String destination;
+	private final FileSystemOptions opts;
+	private final int spillThreshold;
+	private final Queue<String> created;
+	private final ExecutorService workers;
+	private final Semaphore pending;
+	private final AtomicReference<Throwable> failure = new AtomicReference<>();
+	private final AtomicInteger uploaded = new AtomicInteger();
+	private final ThreadLocal<StandardFileSystemManager> workerManagers = new ThreadLocal<>();
+	private final Queue<StandardFileSystemManager> openManagers = new ConcurrentLinkedQueue<>();
+
+	/**
+	 * @param destination    Folder the entries are uploaded to.
+	 * @param opts           Configured file system options.
+	 * @param parallelism    Number of entries uploaded at the same time.
+	 * @param spillThreshold Number of bytes of an entry kept in memory before it spills to a temporary file.
+	 * @param created        URIs of the files are added to it when their upload starts.
+	 */
+	public EntryUploader(String destination, FileSystemOptions opts, int parallelism, int spillThreshold,
+	                     Queue<String> created) {
+		this.destination = destination;
+		this.opts = opts;
+		this.spillThreshold = spillThreshold;
+		this.created = created;
+		int workerCount = Math.max(1, parallelism);
+		this.workers = Executors.newFixedThreadPool(workerCount);
+		this.pending = new Semaphore(workerCount * FileConstants.SCATTER_WINDOW_FACTOR);
+	}
+
+	/**
+	 * Buffer the content of an entry and queue it for upload. Blocks while too many entries wait for upload.
+	 *
+	 * @param name Name of the entry, relative to the destination folder.
+	 * @param in   Stream of the entry content, read to its end but not closed.
+	 * @throws IOException On error reading the entry, or if an earlier upload has failed.
+	 */
+	public void submit(String name, InputStream in) throws IOException {
+		checkFailure();
+		try {
+			pending.acquire();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting to upload " + name);
+		}
+		SpillingBackingStore store = new SpillingBackingStore(spillThreshold);
+		boolean queued = false;
+		try {
+			byte[] buffer = new byte[FileConstants.ARCHIVE_BUFFER_SIZE];
+			int read;
+			while ((read = in.read(buffer)) != -1) {
+				store.writeOut(buffer, 0, read);
+			}
+			store.closeForWriting();
+			workers.execute(new Upload(name, store));
+			queued = true;
+		} finally {
+			if (!queued) {
+				closeStore(store);
+				pending.release();
+			}
+		}
+	}
+
+	/**
+	 * Wait until all the queued entries are uploaded.
+	 *
+	 * @return Number of entries uploaded.
+	 * @throws IOException If an upload has failed.
+	 */
+	public int finish() throws IOException {
+		workers.shutdown();
+		try {
+			while (!workers.awaitTermination(1, TimeUnit.SECONDS)) {
+				if (log.isDebugEnabled()) {
+					log.debug("Waiting for the archive entries to be uploaded to " + destination);
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while uploading the archive entries");
+		}
+		checkFailure();
+		return uploaded.get();
+	}
+
+	/**
+	 * Stop the workers and close their file system managers. Entries that are not uploaded yet are discarded, and
+	 * the buffers of the entries that no worker has started on are closed here.
+	 */
+	@Override
+	public void close() {
+		for (Runnable dropped : workers.shutdownNow()) {
+			((Upload) dropped).discard();
+		}
+		try {
+			workers.awaitTermination(1, TimeUnit.MINUTES);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		StandardFileSystemManager manager;
+		while ((manager = openManagers.poll()) != null) {
+			manager.close();
+		}
+	}
+
+	private void upload(String name, SpillingBackingStore store) throws IOException {
+		StandardFileSystemManager manager = workerManagers.get();
+		if (manager == null) {
+			manager = FileConnectorUtils.getManager();
+			workerManagers.set(manager);
+			openManagers.add(manager);
+		}
+		FileObject target = manager.resolveFile(destination + File.separator + name, opts);
+		InputStream in = null;
+		OutputStream out = null;
+		try {
+			created.add(target.getName().getURI());
+			in = store.getInputStream();
+			out = new BufferedOutputStream(target.getContent().getOutputStream(), FileConstants.ARCHIVE_BUFFER_SIZE);
+			IOUtils.copy(in, out);
+			out.close();
+			uploaded.incrementAndGet();
+			if (log.isDebugEnabled()) {
+				log.debug("Uploaded the archive entry to " + target.getName().getFriendlyURI());
+			}
+		} finally {
+			IOUtils.closeQuietly(in);
+			IOUtils.closeQuietly(out);
+			target.close();
+		}
+	}
+
+	/**
+	 * Upload of a single buffered entry. The buffer is closed once the upload ends, or when the task is dropped.
+	 */
+	private class Upload implements Runnable {
+		private final String name;
+		private final SpillingBackingStore store;
+
+		Upload(String name, SpillingBackingStore store) {
+			this.name = name;
+			this.store = store;
+		}
+
+		@Override
+		public void run() {
+			try {
+				if (failure.get() == null) {
+					upload(name, store);
+				}
+			} catch (IOException | RuntimeException e) {
+				failure.compareAndSet(null, e);
+			} finally {
+				discard();
+			}
+		}
+
+		void discard() {
+			closeStore(store);
+			pending.release();
+		}
+	}
+
+	private void closeStore(SpillingBackingStore store) {
+		try {
+			store.close();
+		} catch (IOException e) {
+			log.error("Error while closing the entry buffer", e);
+		}
+	}
+
+	private void checkFailure() throws IOException {
+		Throwable cause = failure.get();
+		if (cause instanceof IOException) {
+			throw new IOException("Error while uploading the archive entries", cause);
+		} else if (cause != null) {
+			throw new SynapseException("Error while uploading the archive entries", cause);
+		}
+	}
+}
\ No newline at end of file
@@ -17,20 +17,48 @@
 */
 package org.wso2.carbon.connector.util;
 
+import org.apache.axiom.om.OMElement;
+import org.apache.axiom.om.OMNode;
+import org.apache.axiom.om.OMOutputFormat;
+import org.apache.axiom.om.OMText;
+import org.apache.axiom.util.base64.Base64DecodingOutputStreamWriter;
+import org.apache.axis2.AxisFault;
+import org.apache.axis2.Constants;
+import org.apache.axis2.transport.MessageFormatter;
+import org.apache.axis2.transport.base.BaseConstants;
+import org.apache.axis2.transport.base.BaseUtils;
+import org.apache.axis2.util.MessageProcessorSelector;
+import org.apache.commons.io.output.CloseShieldOutputStream;
 import org.apache.commons.lang.StringUtils;
+import org.apache.commons.vfs2.FileName;
 import org.apache.commons.vfs2.FileObject;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.commons.vfs2.FileSystemException;
 import org.apache.commons.vfs2.FileSystemOptions;
+import org.apache.commons.vfs2.FileType;
 import org.apache.commons.vfs2.impl.StandardFileSystemManager;
+import org.apache.commons.vfs2.provider.GenericFileName;
 import org.apache.commons.vfs2.provider.ftp.FtpFileSystemConfigBuilder;
+import org.apache.commons.vfs2.provider.local.LocalFileName;
 import org.apache.commons.vfs2.provider.ftps.FtpsFileSystemConfigBuilder;
 import org.apache.commons.vfs2.provider.sftp.SftpFileSystemConfigBuilder;
 import org.apache.synapse.MessageContext;
 import org.apache.synapse.SynapseException;
+import org.apache.synapse.core.axis2.Axis2MessageContext;
 import org.wso2.carbon.connector.core.util.ConnectorUtils;
 
+import javax.activation.DataHandler;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Locale;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
 /**
  * FileConnectorUtils to check whether folder or not, initiate StandardFileSystemManager and configure
  * FileSystemOptions.
@@ -134,4 +162,301 @@ public class FileConnectorUtils {
 		}
 		return opts;
 	}
+
+	/**
+	 * Check whether the file object is on the local file system.
+	 *
+	 * @param fileObject The file object.
+	 * @return true, if the file object uses the local file scheme.
+	 */
+	public static boolean isLocal(FileObject fileObject) {
+		return fileObject.getName() instanceof LocalFileName;
+	}
+
+	/**
+	 * Get the java.io.File for a file object on the local file system. The file does not need to exist.
+	 *
+	 * @param fileObject The local file object.
+	 * @return The local file.
+	 * @throws FileSystemException On error decoding the file name.
+	 */
+	public static File toLocalFile(FileObject fileObject) throws FileSystemException {
+		LocalFileName name = (LocalFileName) fileObject.getName();
+		return new File(name.getRootFile() + name.getPathDecoded());
+	}
+
+	/**
+	 * Read a positive integer template parameter.
+	 *
+	 * @param messageContext The message context that is used in the mediation flow.
+	 * @param parameter      Name of the template parameter.
+	 * @param defaultValue   Value to use when the parameter is not set.
+	 * @return The parameter value, or the default value if the parameter is empty.
+	 */
+	public static int getIntParameter(MessageContext messageContext, String parameter, int defaultValue) {
+		long value = getLongParameter(messageContext, parameter, defaultValue);
+		if (value > Integer.MAX_VALUE) {
+			throw new SynapseException("The " + parameter + " should not exceed " + Integer.MAX_VALUE + ": " + value);
+		}
+		return (int) value;
+	}
+
+	/**
+	 * Read a positive long template parameter.
+	 *
+	 * @param messageContext The message context that is used in the mediation flow.
+	 * @param parameter      Name of the template parameter.
+	 * @param defaultValue   Value to use when the parameter is not set.
+	 * @return The parameter value, or the default value if the parameter is empty.
+	 */
+	public static long getLongParameter(MessageContext messageContext, String parameter, long defaultValue) {
+		String value = StringUtils.trim((String) ConnectorUtils.lookupTemplateParamater(messageContext, parameter));
+		if (StringUtils.isEmpty(value)) {
+			return defaultValue;
+		}
+		try {
+			long longValue = Long.parseLong(value);
+			if (longValue <= 0) {
+				throw new SynapseException("The " + parameter + " should be a positive number: " + value);
+			}
+			return longValue;
+		} catch (NumberFormatException e) {
+			throw new SynapseException("Invalid value for " + parameter + ": " + value, e);
+		}
+	}
+
+	/**
+	 * Read a boolean template parameter.
+	 *
+	 * @param messageContext The message context that is used in the mediation flow.
+	 * @param parameter      Name of the template parameter.
+	 * @param defaultValue   Value to use when the parameter is not set.
+	 * @return The parameter value, or the default value if the parameter is empty.
+	 */
+	public static boolean getBooleanParameter(MessageContext messageContext, String parameter, boolean defaultValue) {
+		String value = StringUtils.trim((String) ConnectorUtils.lookupTemplateParamater(messageContext, parameter));
+		if (StringUtils.isEmpty(value)) {
+			return defaultValue;
+		}
+		return Boolean.parseBoolean(value);
+	}
+
+	/**
+	 * Read the deflate compression level template parameter.
+	 *
+	 * @param messageContext The message context that is used in the mediation flow.
+	 * @return The level from 0 to 9, or the default level if the parameter is empty.
+	 */
+	public static int getCompressionLevel(MessageContext messageContext) {
+		String value = StringUtils.trim(
+				(String) ConnectorUtils.lookupTemplateParamater(messageContext, FileConstants.COMPRESSION_LEVEL));
+		if (StringUtils.isEmpty(value)) {
+			return Deflater.DEFAULT_COMPRESSION;
+		}
+		try {
+			int level = Integer.parseInt(value);
+			if (level < Deflater.NO_COMPRESSION || level > Deflater.BEST_COMPRESSION) {
+				throw new SynapseException("The " + FileConstants.COMPRESSION_LEVEL + " should be between "
+				                           + Deflater.NO_COMPRESSION + " and " + Deflater.BEST_COMPRESSION + ": "
+				                           + value);
+			}
+			return level;
+		} catch (NumberFormatException e) {
+			throw new SynapseException("Invalid value for " + FileConstants.COMPRESSION_LEVEL + ": " + value, e);
+		}
+	}
+
+	/**
+	 * Check whether two file objects are on the same host and are accessed with the same credentials.
+	 *
+	 * @param first  The first file object.
+	 * @param second The second file object.
+	 * @return true, if both file objects share the scheme, host, port and credentials.
+	 */
+	public static boolean isSameHost(FileObject first, FileObject second) {
+		FileName firstName = first.getName();
+		FileName secondName = second.getName();
+		if (!firstName.getScheme().equals(secondName.getScheme())) {
+			return false;
+		}
+		if (firstName instanceof GenericFileName && secondName instanceof GenericFileName) {
+			GenericFileName firstGeneric = (GenericFileName) firstName;
+			GenericFileName secondGeneric = (GenericFileName) secondName;
+			return StringUtils.equalsIgnoreCase(firstGeneric.getHostName(), secondGeneric.getHostName()) &&
+			       firstGeneric.getPort() == secondGeneric.getPort() &&
+			       StringUtils.equals(firstGeneric.getUserName(), secondGeneric.getUserName()) &&
+			       StringUtils.equals(firstGeneric.getPassword(), secondGeneric.getPassword());
+		}
+		return firstName.getRootURI().equals(secondName.getRootURI());
+	}
+
+	/**
+	 * Create the pipelined transfer engine configured for the mediation flow.
+	 *
+	 * @param messageContext The message context that is used in the mediation flow.
+	 * @return The pipelined transfer engine.
+	 */
+	public static PipelinedTransfer getPipelinedTransfer(MessageContext messageContext) {
+		return new PipelinedTransfer(
+				getIntParameter(messageContext, FileConstants.PIPELINE_BUFFER_SIZE,
+				                FileConstants.DEFAULT_PIPELINE_BUFFER_SIZE),
+				getIntParameter(messageContext, FileConstants.PIPELINE_BUFFER_COUNT,
+				                FileConstants.DEFAULT_PIPELINE_BUFFER_COUNT));
+	}
+
+	/**
+	 * Resolve the target on the file system of the source, so that both file objects share the same file system
+	 * instance (and session). VFS uses a native rename only in that case.
+	 *
+	 * @param source The source file object.
+	 * @param target The target file object on the same host as the source.
+	 * @return The target file object resolved on the file system of the source.
+	 * @throws FileSystemException On error resolving the target.
+	 */
+	public static FileObject resolveOnSameFileSystem(FileObject source, FileObject target)
+			throws FileSystemException {
+		if (source.getFileSystem() == target.getFileSystem()) {
+			return target;
+		}
+		return source.getFileSystem().resolveFile(target.getName().getPath());
+	}
+
+	/**
+	 * Write the body of the message to the output stream. Binary and text wrappers are written straight from the
+	 * payload, decoding base64 content on the fly, so the content is never held in memory as a whole. Any other
+	 * payload is serialized with the message formatter of the message. The output stream is not closed.
+	 *
+	 * @param messageContext The message context that is used in the mediation flow.
+	 * @param out            The stream to write the body to.
+	 * @throws IOException On error writing the body.
+	 */
+	public static void writeMessageBody(MessageContext messageContext, OutputStream out) throws IOException {
+		org.apache.axis2.context.MessageContext axis2MessageContext =
+				((Axis2MessageContext) messageContext).getAxis2MessageContext();
+		OMOutputFormat format = BaseUtils.getOMOutputFormat(axis2MessageContext);
+		OMElement firstChild = axis2MessageContext.getEnvelope().getBody().getFirstElement();
+		if (firstChild != null && BaseConstants.DEFAULT_BINARY_WRAPPER.equals(firstChild.getQName())) {
+			OMNode content = firstChild.getFirstOMChild();
+			if (content instanceof OMText && ((OMText) content).isBinary()) {
+				((DataHandler) ((OMText) content).getDataHandler()).writeTo(out);
+			} else {
+				Writer writer = new Base64DecodingOutputStreamWriter(new CloseShieldOutputStream(out));
+				firstChild.writeTextTo(writer, false);
+				// Closing decodes the last block, the target stream is left open
+				writer.close();
+			}
+		} else if (firstChild != null && BaseConstants.DEFAULT_TEXT_WRAPPER.equals(firstChild.getQName())) {
+			Writer writer = new OutputStreamWriter(new CloseShieldOutputStream(out), format.getCharSetEncoding());
+			firstChild.writeTextTo(writer, false);
+			writer.close();
+		} else {
+			getMessageFormatter(axis2MessageContext).writeTo(axis2MessageContext, format, out, true);
+		}
+		out.flush();
+	}
+
+	/**
+	 * Get the formatter for message.
+	 *
+	 * @param msgContext The message context that is generated for processing the file.
+	 * @return The message formatter of the message.
+	 */
+	private static MessageFormatter getMessageFormatter(org.apache.axis2.context.MessageContext msgContext) {
+		try {
+			return MessageProcessorSelector.getMessageFormatter(msgContext);
+		} catch (AxisFault axisFault) {
+			throw new SynapseException("Unable to get the message formatter to use");
+		}
+	}
+
+	/**
+	 * Resolve the file that the send operation writes to. When the destination is a folder, the content is written to
+	 * the default response file inside it.
+	 *
+	 * @param manager     The file system manager.
+	 * @param destination Location of the destination file or folder.
+	 * @param opts        Configured file system options.
+	 * @return The file to write to.
+	 * @throws FileSystemException On error resolving the destination or getting its type.
+	 */
+	public static FileObject resolveSendTarget(StandardFileSystemManager manager, String destination,
+	                                           FileSystemOptions opts) throws FileSystemException {
+		FileObject fileObj = manager.resolveFile(destination, opts);
+		if (FileType.FOLDER.equals(fileObj.getType())) {
+			fileObj.close();
+			return manager.resolveFile(destination.concat(FileConstants.DEFAULT_RESPONSE_FILE), opts);
+		}
+		return fileObj;
+	}
+
+	/**
+	 * Wrap the output stream with the requested compression. Closing the returned stream finishes the compressed
+	 * content and closes the given stream.
+	 *
+	 * @param out         The stream to write the compressed content to.
+	 * @param compression Compression to use, gzip, deflate or none.
+	 * @return The compressing stream, or the given stream if no compression is requested.
+	 * @throws IOException On error writing the compression header.
+	 */
+	public static OutputStream compress(OutputStream out, String compression) throws IOException {
+		checkCompression(compression);
+		if (FileConstants.COMPRESSION_GZIP.equalsIgnoreCase(compression)) {
+			return new GZIPOutputStream(out, FileConstants.BUFFER_SIZE);
+		} else if (FileConstants.COMPRESSION_DEFLATE.equalsIgnoreCase(compression)) {
+			return new DeflaterOutputStream(out);
+		}
+		return out;
+	}
+
+	/**
+	 * Check that the compression is supported, so that the file is not opened for a compression that fails.
+	 *
+	 * @param compression Compression to use, gzip, deflate or none.
+	 */
+	public static void checkCompression(String compression) {
+		if (StringUtils.isNotEmpty(compression) && !FileConstants.COMPRESSION_NONE.equalsIgnoreCase(compression)
+		    && !FileConstants.COMPRESSION_GZIP.equalsIgnoreCase(compression)
+		    && !FileConstants.COMPRESSION_DEFLATE.equalsIgnoreCase(compression)) {
+			throw new SynapseException("Unsupported compression " + compression + ". Possible values are gzip, "
+			                           + "deflate and none.");
+		}
+	}
+
+	/**
+	 * Check whether the message body is written as text: plain text in the default text wrapper, binary content of
+	 * a text content type, or a message formatted as a text content type such as XML, JSON or CSV. A message without
+	 * a message type is formatted as SOAP, which is text as well.
+	 *
+	 * @param messageContext The message context that is used in the mediation flow.
+	 * @return true, if the body is text.
+	 */
+	public static boolean isTextPayload(MessageContext messageContext) {
+		OMElement firstChild = messageContext.getEnvelope().getBody().getFirstElement();
+		if (firstChild != null && BaseConstants.DEFAULT_TEXT_WRAPPER.equals(firstChild.getQName())) {
+			return true;
+		}
+		if (firstChild != null && BaseConstants.DEFAULT_BINARY_WRAPPER.equals(firstChild.getQName())) {
+			OMNode content = firstChild.getFirstOMChild();
+			return content instanceof OMText && ((OMText) content).isBinary()
+			       && isTextContentType(((DataHandler) ((OMText) content).getDataHandler()).getContentType());
+		}
+		String messageType = (String) ((Axis2MessageContext) messageContext).getAxis2MessageContext()
+				.getProperty(Constants.Configuration.MESSAGE_TYPE);
+		return messageType == null || isTextContentType(messageType);
+	}
+
+	/**
+	 * Check whether the content type is a text type, text/*, XML or JSON.
+	 *
+	 * @param contentType The content type, with or without parameters.
+	 * @return true, if the content type is a text type.
+	 */
+	private static boolean isTextContentType(String contentType) {
+		if (contentType == null) {
+			return false;
+		}
+		String mediaType = StringUtils.substringBefore(contentType, ";").trim().toLowerCase(Locale.ENGLISH);
+		return mediaType.startsWith("text/") || mediaType.endsWith("/xml") || mediaType.endsWith("+xml")
+		       || mediaType.endsWith("/json") || mediaType.endsWith("+json");
+	}
 }
\ No newline at end of file
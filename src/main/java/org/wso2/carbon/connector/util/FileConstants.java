@@ -67,4 +67,97 @@ public final class FileConstants {
 	public static final String INCLUDE_PARENT_DIRECTORY = "includeParentDirectory";
 	public static final boolean DEFAULT_INCLUDE_PARENT_DIRECTORY = false;
 	public static final String FILE_TYPE = "fileType";
+	public static final String SEGMENTED_TRANSFER = "segmentedTransfer";
+	public static final String SEGMENT_COUNT = "segmentCount";
+	public static final int DEFAULT_SEGMENT_COUNT = 4;
+	public static final long MIN_SEGMENT_SIZE = 1024 * 1024;
+	public static final String PIPELINE_BUFFER_SIZE = "pipelineBufferSize";
+	public static final String PIPELINE_BUFFER_COUNT = "pipelineBufferCount";
+	public static final int DEFAULT_PIPELINE_BUFFER_SIZE = 64 * 1024;
+	public static final int DEFAULT_PIPELINE_BUFFER_COUNT = 8;
+	public static final String PARALLELISM = "parallelism";
+	public static final int DEFAULT_PARALLELISM = 4;
+	public static final String DRY_RUN = "dryRun";
+	public static final String MOVE = "move";
+	public static final String CONFLICT = "conflict";
+	public static final String PARALLEL_DELETE = "parallelDelete";
+	public static final String FILES_DELETED = "filesDeleted";
+	public static final int DELETE_BATCH_SIZE = 100;
+	public static final String BUFFERED_APPEND = "bufferedAppend";
+	public static final String FLUSH_SIZE = "flushSize";
+	public static final int DEFAULT_FLUSH_SIZE = 64 * 1024;
+	public static final String FLUSH_INTERVAL = "flushInterval";
+	public static final int DEFAULT_FLUSH_INTERVAL = 1000;
+	public static final String WAIT_FOR_FLUSH = "waitForFlush";
+	public static final int APPEND_IDLE_RUNS = 60;
+	public static final long APPEND_IDLE_TIMEOUT = 60000;
+	public static final long APPEND_EVICTION_INTERVAL = 10000;
+	public static final int APPEND_MAX_HANDLES = 64;
+	public static final String ROLL_SIZE = "rollSize";
+	public static final String ROLL_INTERVAL = "rollInterval";
+	public static final String ROLL_FILE_PATTERN = "rollFilePattern";
+	public static final String DEFAULT_ROLL_PATTERN = "{name}-{timestamp}-{index}{ext}";
+	public static final String ROLL_TIMESTAMP_FORMAT = "yyyyMMdd-HHmmss";
+	public static final String COMPRESS_ROLLED = "compressRolledFile";
+	public static final String GZIP_EXTENSION = ".gz";
+	public static final String USE_MESSAGE_BODY = "useMessageBody";
+	public static final String ASYNC_SEND = "async";
+	public static final String SPILL_THRESHOLD = "spillThreshold";
+	public static final int DEFAULT_SPILL_THRESHOLD = 1024 * 1024;
+	public static final String ASYNC_FAULT_SEQUENCE = "faultSequence";
+	public static final String SEND_QUEUE_DEPTH = "FILE_SEND_QUEUE_DEPTH";
+	public static final String ASYNC_SEND_DESTINATION = "FILE_SEND_DESTINATION";
+	public static final String SNAPSHOT_PREFIX = "file-send-";
+	public static final int ASYNC_SEND_WRITERS = 4;
+	public static final int ASYNC_SEND_QUEUE_CAPACITY = 1000;
+	public static final long ASYNC_SEND_MAX_MEMORY = 64 * 1024 * 1024;
+	public static final long ASYNC_SEND_DRAIN_TIMEOUT = 60000;
+	public static final String DESTINATIONS = "destinations";
+	public static final String SEND = "send";
+	public static final String ERROR = "error";
+	public static final String COMPRESSION = "compression";
+	public static final String COMPRESSION_NONE = "none";
+	public static final String COMPRESSION_GZIP = "gzip";
+	public static final String COMPRESSION_DEFLATE = "deflate";
+	public static final String MAX_FILE_SIZE = "maxFileSize";
+	public static final String PART_SUFFIX = ".part";
+	public static final String MANIFEST_EXTENSION = ".manifest";
+	public static final String PARTS = "parts";
+	public static final String MANIFEST = "manifest";
+	public static final String COMPRESSION_LEVEL = "compressionLevel";
+	public static final String SCATTER_PREFIX = "file-archive-";
+	public static final int SCATTER_SPILL_THRESHOLD = 1024 * 1024;
+	public static final int SCATTER_WINDOW_FACTOR = 2;
+	public static final String PREFETCH_COUNT = "prefetchCount";
+	public static final String PREFETCH_BUFFER_SIZE = "prefetchBufferSize";
+	public static final int DEFAULT_PREFETCH_BUFFER_SIZE = 256 * 1024;
+	public static final String STORE_EXTENSIONS = "storeExtensions";
+	public static final String DETECT_INCOMPRESSIBLE = "detectIncompressible";
+	public static final int COMPRESSION_SAMPLE_SIZE = 64 * 1024;
+	public static final double INCOMPRESSIBLE_RATIO = 0.95;
+	public static final String ARCHIVE_FORMAT = "archiveFormat";
+	public static final String FORMAT_ZIP = "zip";
+	public static final String FORMAT_TAR = "tar";
+	public static final String FORMAT_TAR_GZ = "tar.gz";
+	public static final String FORMAT_TAR_BZ2 = "tar.bz2";
+	public static final int ARCHIVE_BUFFER_SIZE = 64 * 1024;
+	public static final String ZIP_EXTENSION = ".zip";
+	public static final String APPEND_STAGING_SUFFIX = ".appending";
+	public static final String APPEND_BACKUP_SUFFIX = ".original";
+	public static final String SIZE = "size";
+	public static final String COMPRESSED_SIZE = "compressedSize";
+	public static final String CRC = "crc";
+	public static final String LAST_MODIFIED = "lastModified";
+	public static final String LAST_MODIFIED_FORMAT = "yyyy-MM-dd'T'HH:mm:ssXXX";
+	public static final String ENTRY_NAME = "entryName";
+	public static final String MAX_UNCOMPRESSED_SIZE = "maxUncompressedSize";
+	public static final String MAX_ENTRIES = "maxEntries";
+	public static final String MAX_COMPRESSION_RATIO = "maxCompressionRatio";
+	public static final String MAX_DURATION = "maxDuration";
+	public static final int RATIO_GRACE_SIZE = 1024 * 1024;
+	public static final String CONNECTION_POOLING = "connectionPooling";
+	public static final String IDLE_TIMEOUT = "idleTimeout";
+	public static final long DEFAULT_IDLE_TIMEOUT = 60000;
+	public static final int FTP_POOL_MAX_IDLE = 8;
+	public static final long FTP_EVICTION_INTERVAL = 10000;
 }
\ No newline at end of file
@@ -0,0 +1,233 @@
+/*
+* Copyright (c) 2017, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+*
+* WSO2 Inc. licenses this file to you under the Apache License,
+* Version 2.0 (the "License"); you may not use this file except
+* in compliance with the License.
+* You may obtain a copy of the License at
+*
+*http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package org.wso2.carbon.connector.util;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.commons.net.ftp.FTPClient;
+
+import java.io.IOException;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pool of connected and logged in FTP clients, keyed by the proxy and server credentials. A client is checked with
+ * a NOOP before it is reused, and a background evictor disconnects the clients that have been idle for too long.
+ * The most recently used client is reused first, so the surplus clients of a burst go idle and get evicted.
+ */
+public class FtpClientPool {
+	private static final Log log = LogFactory.getLog(FtpClientPool.class);
+	private static final ConcurrentMap<List<String>, Deque<PooledClient>> idleClients = new ConcurrentHashMap<>();
+	private static final ScheduledExecutorService evictor =
+			Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, "file-connector-ftp-evictor");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+
+	static {
+		evictor.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				evictIdle();
+			}
+		}, FileConstants.FTP_EVICTION_INTERVAL, FileConstants.FTP_EVICTION_INTERVAL, TimeUnit.MILLISECONDS);
+	}
+
+	private FtpClientPool() {
+	}
+
+	/**
+	 * Take an idle client of the key. Clients that fail the NOOP check are disconnected and skipped.
+	 *
+	 * @param key The proxy and server credentials.
+	 * @return A client that is still logged in, or null if there is none.
+	 */
+	public static PooledClient borrow(List<String> key) {
+		Deque<PooledClient> clients = idleClients.get(key);
+		PooledClient client;
+		while (clients != null && (client = clients.pollFirst()) != null) {
+			if (client.isValid()) {
+				if (log.isDebugEnabled()) {
+					log.debug("Reusing the pooled FTP connection to " + client.getClient().getRemoteAddress());
+				}
+				return client;
+			}
+			client.disconnect();
+		}
+		return null;
+	}
+
+	/**
+	 * Return a client after a successful transfer, so the next call with the same key can reuse it.
+	 *
+	 * @param client      The client.
+	 * @param idleTimeout Time in milliseconds the client may stay idle before it is disconnected.
+	 */
+	public static void release(PooledClient client, long idleTimeout) {
+		Deque<PooledClient> clients = idleClients.get(client.key);
+		if (clients == null) {
+			Deque<PooledClient> created = new ConcurrentLinkedDeque<>();
+			clients = idleClients.putIfAbsent(client.key, created);
+			if (clients == null) {
+				clients = created;
+			}
+		}
+		if (clients.size() >= FileConstants.FTP_POOL_MAX_IDLE) {
+			client.disconnect();
+			return;
+		}
+		client.idleUntil = System.currentTimeMillis() + idleTimeout;
+		clients.offerFirst(client);
+	}
+
+	/**
+	 * Disconnect every idle client. Called when the connector is undeployed.
+	 */
+	public static void closeAll() {
+		for (List<String> key : idleClients.keySet()) {
+			Deque<PooledClient> clients = idleClients.remove(key);
+			PooledClient client;
+			while (clients != null && (client = clients.pollFirst()) != null) {
+				client.disconnect();
+			}
+		}
+	}
+
+	private static void evictIdle() {
+		long now = System.currentTimeMillis();
+		for (Map.Entry<List<String>, Deque<PooledClient>> entry : idleClients.entrySet()) {
+			Iterator<PooledClient> clients = entry.getValue().descendingIterator();
+			while (clients.hasNext()) {
+				PooledClient client = clients.next();
+				// Only the thread that removes the client disconnects it, a borrower may have taken it already
+				if (client.idleUntil <= now && entry.getValue().removeLastOccurrence(client)) {
+					client.disconnect();
+				}
+			}
+		}
+	}
+
+	/**
+	 * A logged in FTP client, remembering the file type and working directory it was left with, so that they are
+	 * only sent to the server again when they change.
+	 */
+	public static class PooledClient {
+		private final List<String> key;
+		private final FTPClient client;
+		private final String homeDirectory;
+		private String workingDirectory;
+		private int fileType = -1;
+		private volatile long idleUntil;
+
+		/**
+		 * @param key    The proxy and server credentials the client logged in with.
+		 * @param client The connected and logged in client.
+		 * @throws IOException On error reading the working directory.
+		 */
+		public PooledClient(List<String> key, FTPClient client) throws IOException {
+			this.key = key;
+			this.client = client;
+			this.homeDirectory = client.printWorkingDirectory();
+		}
+
+		public FTPClient getClient() {
+			return client;
+		}
+
+		/**
+		 * Set the file type, unless the client already uses it.
+		 *
+		 * @param type One of the FTP file type constants.
+		 * @throws IOException On error sending the command.
+		 */
+		public void setFileType(int type) throws IOException {
+			if (type != fileType && client.setFileType(type)) {
+				fileType = type;
+			}
+		}
+
+		/**
+		 * Change to a directory relative to the login directory, unless the client is already in it.
+		 *
+		 * @param path The directory.
+		 * @return true, if the client is in the directory.
+		 * @throws IOException On error sending the commands.
+		 */
+		public boolean changeWorkingDirectory(String path) throws IOException {
+			if (path.equals(workingDirectory)) {
+				return true;
+			}
+			workingDirectory = null;
+			if (homeDirectory != null && !client.changeWorkingDirectory(homeDirectory)) {
+				return false;
+			}
+			if (client.changeWorkingDirectory(path)) {
+				workingDirectory = path;
+				return true;
+			}
+			return false;
+		}
+
+		/**
+		 * Check that the control connection still works.
+		 *
+		 * @return true, if the server answered the NOOP.
+		 */
+		boolean isValid() {
+			try {
+				return client.isConnected() && client.sendNoOp();
+			} catch (IOException e) {
+				return false;
+			}
+		}
+
+		/**
+		 * Log out and close the connection.
+		 */
+		public void disconnect() {
+			if (!client.isConnected()) {
+				return;
+			}
+			try {
+				client.logout();
+			} catch (IOException e) {
+				if (log.isDebugEnabled()) {
+					log.debug("Error while logging out of the FTP server", e);
+				}
+			}
+			try {
+				client.disconnect();
+			} catch (IOException e) {
+				log.error("Error while disconnecting from the FTP server", e);
+			}
+		}
+	}
+}
\ No newline at end of file
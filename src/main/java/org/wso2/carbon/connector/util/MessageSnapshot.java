@@ -0,0 +1,166 @@
+/*
+* Copyright (c) 2017, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+*
+* WSO2 Inc. licenses this file to you under the Apache License,
+* Version 2.0 (the "License"); you may not use this file except
+* in compliance with the License.
+* You may obtain a copy of the License at
+*
+*http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package org.wso2.carbon.connector.util;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.CloseShieldOutputStream;
+import org.apache.commons.io.output.DeferredFileOutputStream;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.commons.vfs2.FileObject;
+import org.apache.commons.vfs2.FileSystemOptions;
+import org.apache.commons.vfs2.impl.StandardFileSystemManager;
+import org.apache.synapse.MessageContext;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * A copy of the formatted message body that can be written to any number of destinations. The copy stays in memory
+ * up to a threshold and spills to a temporary file beyond it. A copy kept in memory can be spilled later on, to
+ * release the memory while it waits to be written.
+ */
+public class MessageSnapshot {
+	private static final Log log = LogFactory.getLog(MessageSnapshot.class);
+	private volatile byte[] data;
+	private volatile File file;
+
+	private MessageSnapshot(DeferredFileOutputStream content) {
+		if (content.isInMemory()) {
+			data = content.getData();
+		} else {
+			file = content.getFile();
+		}
+	}
+
+	/**
+	 * Format the message body into a new snapshot, compressing it on the way if requested.
+	 *
+	 * @param messageContext The message context that is used in the mediation flow.
+	 * @param spillThreshold Number of bytes kept in memory before the snapshot spills to a temporary file.
+	 * @param compression    Compression to use, gzip, deflate or none.
+	 * @return The snapshot.
+	 * @throws IOException On error formatting the message body.
+	 */
+	public static MessageSnapshot take(MessageContext messageContext, int spillThreshold, String compression)
+			throws IOException {
+		DeferredFileOutputStream content =
+				new DeferredFileOutputStream(spillThreshold, FileConstants.SNAPSHOT_PREFIX, null, null);
+		try {
+			try {
+				OutputStream out = FileConnectorUtils.compress(new CloseShieldOutputStream(content), compression);
+				FileConnectorUtils.writeMessageBody(messageContext, out);
+				// Closing finishes the compressed content
+				out.close();
+			} finally {
+				content.close();
+			}
+		} catch (IOException | RuntimeException e) {
+			new MessageSnapshot(content).delete();
+			throw e;
+		}
+		return new MessageSnapshot(content);
+	}
+
+	/**
+	 * Get the number of bytes the snapshot holds in memory.
+	 *
+	 * @return Size of the snapshot, or 0 if it is in a temporary file.
+	 */
+	public long getMemorySize() {
+		byte[] bytes = data;
+		return bytes != null ? bytes.length : 0;
+	}
+
+	/**
+	 * Move a snapshot held in memory to a temporary file, so that the memory is released.
+	 *
+	 * @throws IOException On error writing the temporary file. The snapshot stays in memory in that case.
+	 */
+	public void spill() throws IOException {
+		if (data == null) {
+			return;
+		}
+		File spillFile = File.createTempFile(FileConstants.SNAPSHOT_PREFIX, null);
+		OutputStream out = null;
+		try {
+			out = new FileOutputStream(spillFile);
+			out.write(data);
+			out.close();
+			file = spillFile;
+			data = null;
+		} finally {
+			IOUtils.closeQuietly(out);
+			if (file != spillFile && !spillFile.delete()) {
+				log.warn("Unable to delete the temporary file " + spillFile);
+			}
+		}
+	}
+
+	/**
+	 * Write the snapshot to the send target of the destination.
+	 *
+	 * @param manager     The file system manager to resolve the destination with.
+	 * @param destination Location of the destination file or folder.
+	 * @param opts        Configured file system options.
+	 * @param append      Whether to append to the destination file.
+	 * @param pipeline    Pipelined transfer used for remote destinations.
+	 * @return The friendly URI of the file that was written.
+	 * @throws IOException On error writing the destination.
+	 */
+	public String writeTo(StandardFileSystemManager manager, String destination, FileSystemOptions opts,
+	                      boolean append, PipelinedTransfer pipeline) throws IOException {
+		FileObject target = null;
+		InputStream in = null;
+		OutputStream out = null;
+		try {
+			target = FileConnectorUtils.resolveSendTarget(manager, destination, opts);
+			byte[] bytes = data;
+			in = bytes != null ? new ByteArrayInputStream(bytes) : new FileInputStream(file);
+			out = target.getContent().getOutputStream(append);
+			if (!FileConnectorUtils.isLocal(target)) {
+				out = pipeline.newOutputStream(out);
+			}
+			IOUtils.copy(in, out);
+			// Closing waits until the pipelined writer has uploaded the remaining buffers
+			out.close();
+			return target.getName().getFriendlyURI();
+		} finally {
+			IOUtils.closeQuietly(in);
+			IOUtils.closeQuietly(out);
+			if (target != null) {
+				target.close();
+			}
+		}
+	}
+
+	/**
+	 * Release the snapshot, deleting its temporary file if it spilled to disk.
+	 */
+	public void delete() {
+		data = null;
+		if (file != null && file.exists() && !file.delete()) {
+			log.warn("Unable to delete the temporary file " + file);
+		}
+	}
+}
\ No newline at end of file
@@ -0,0 +1,190 @@
+/*
+* Copyright (c) 2017, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+*
+* WSO2 Inc. licenses this file to you under the Apache License,
+* Version 2.0 (the "License"); you may not use this file except
+* in compliance with the License.
+* You may obtain a copy of the License at
+*
+*http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package org.wso2.carbon.connector.util;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.commons.vfs2.impl.StandardFileSystemManager;
+import org.apache.synapse.SynapseException;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs a file operation over a list of items with bounded parallelism. Every worker owns its own
+ * StandardFileSystemManager, so each worker keeps a separate session to the remote server for the whole run. An
+ * executor can also be kept open for several runs, such as the levels of a folder tree, and then its workers keep
+ * their sessions across the runs.
+ */
+public class ParallelFileExecutor implements Closeable {
+	private static final Log log = LogFactory.getLog(ParallelFileExecutor.class);
+	private final int parallelism;
+	private final ExecutorService executor;
+	private final ThreadLocal<StandardFileSystemManager> workerManagers = new ThreadLocal<>();
+	private final Queue<StandardFileSystemManager> openManagers = new ConcurrentLinkedQueue<>();
+
+	/**
+	 * Operation applied to a single item by a worker.
+	 *
+	 * @param <T> Type of the item.
+	 */
+	public interface Task<T> {
+		/**
+		 * Process one item.
+		 *
+		 * @param item    The item to process.
+		 * @param manager The file system manager owned by the current worker.
+		 * @throws IOException On error while processing the item.
+		 */
+		void execute(T item, StandardFileSystemManager manager) throws IOException;
+	}
+
+	/**
+	 * @param parallelism Maximum number of workers (sessions) to use.
+	 */
+	public ParallelFileExecutor(int parallelism) {
+		this.parallelism = Math.max(1, parallelism);
+		this.executor = Executors.newFixedThreadPool(this.parallelism);
+	}
+
+	/**
+	 * Process all the items with the given number of workers. The first failure stops the remaining workers and
+	 * is re-thrown once every worker has finished.
+	 *
+	 * @param items       Items to be processed.
+	 * @param parallelism Maximum number of workers (sessions) to use.
+	 * @param task        Operation applied to each item.
+	 * @param <T>         Type of the item.
+	 * @return Number of items successfully processed.
+	 */
+	public static <T> int execute(List<T> items, int parallelism, Task<T> task) {
+		if (items.isEmpty()) {
+			return 0;
+		}
+		ParallelFileExecutor executor = new ParallelFileExecutor(Math.min(parallelism, items.size()));
+		try {
+			return executor.run(items, task);
+		} finally {
+			executor.close();
+		}
+	}
+
+	/**
+	 * Process all the items on the workers of this executor. The first failure stops the remaining workers and is
+	 * re-thrown once every worker has finished.
+	 *
+	 * @param items Items to be processed.
+	 * @param task  Operation applied to each item.
+	 * @param <T>   Type of the item.
+	 * @return Number of items successfully processed.
+	 */
+	public <T> int run(List<T> items, final Task<T> task) {
+		if (items.isEmpty()) {
+			return 0;
+		}
+		int workers = Math.min(parallelism, items.size());
+		final Queue<T> queue = new ConcurrentLinkedQueue<>(items);
+		final AtomicBoolean failed = new AtomicBoolean(false);
+		final AtomicInteger processed = new AtomicInteger();
+		List<Future<Void>> futures = new ArrayList<>();
+		try {
+			for (int i = 0; i < workers; i++) {
+				futures.add(executor.submit(new Callable<Void>() {
+					@Override
+					public Void call() throws IOException {
+						StandardFileSystemManager manager = getWorkerManager();
+						try {
+							T item;
+							while (!failed.get() && (item = queue.poll()) != null) {
+								task.execute(item, manager);
+								processed.incrementAndGet();
+							}
+						} catch (IOException | RuntimeException e) {
+							failed.set(true);
+							throw e;
+						}
+						return null;
+					}
+				}));
+			}
+			Throwable failure = null;
+			for (Future<Void> future : futures) {
+				try {
+					future.get();
+				} catch (ExecutionException e) {
+					if (failure == null) {
+						failure = e.getCause();
+					}
+				}
+			}
+			if (failure != null) {
+				throw new SynapseException("Error while processing files in parallel", failure);
+			}
+		} catch (InterruptedException e) {
+			failed.set(true);
+			for (Future<Void> future : futures) {
+				future.cancel(true);
+			}
+			Thread.currentThread().interrupt();
+			throw new SynapseException("Interrupted while processing files in parallel", e);
+		}
+		if (log.isDebugEnabled()) {
+			log.debug("Processed " + processed.get() + " items using " + workers + " workers.");
+		}
+		return processed.get();
+	}
+
+	/**
+	 * Stop the workers and close their file system managers.
+	 */
+	@Override
+	public void close() {
+		executor.shutdownNow();
+		try {
+			executor.awaitTermination(1, TimeUnit.MINUTES);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		StandardFileSystemManager manager;
+		while ((manager = openManagers.poll()) != null) {
+			manager.close();
+		}
+	}
+
+	private StandardFileSystemManager getWorkerManager() {
+		StandardFileSystemManager manager = workerManagers.get();
+		if (manager == null) {
+			manager = FileConnectorUtils.getManager();
+			workerManagers.set(manager);
+			openManagers.add(manager);
+		}
+		return manager;
+	}
+}
\ No newline at end of file
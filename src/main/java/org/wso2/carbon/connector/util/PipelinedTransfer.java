@@ -0,0 +1,365 @@
+/*
+* Copyright (c) 2017, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+*
+* WSO2 Inc. licenses this file to you under the Apache License,
+* Version 2.0 (the "License"); you may not use this file except
+* in compliance with the License.
+* You may obtain a copy of the License at
+*
+*http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package org.wso2.carbon.connector.util;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.commons.vfs2.FileObject;
+import org.apache.commons.vfs2.FileType;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Transfer engine that overlaps reading and writing. A reader thread fills buffers from the source while a writer
+ * thread drains them to the destination. The two threads are connected by a bounded ring of reusable buffers, so
+ * memory use is limited to bufferSize * bufferCount per transfer.
+ */
+public class PipelinedTransfer {
+	private static final Log log = LogFactory.getLog(PipelinedTransfer.class);
+	private static final ExecutorService executor = Executors.newCachedThreadPool(new ThreadFactory() {
+		private final AtomicInteger count = new AtomicInteger();
+
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, "file-connector-pipeline-" + count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+	private final int bufferSize;
+	private final int bufferCount;
+
+	public PipelinedTransfer(int bufferSize, int bufferCount) {
+		this.bufferSize = Math.max(1, bufferSize);
+		this.bufferCount = Math.max(2, bufferCount);
+	}
+
+	/**
+	 * Copy a file or a folder tree from the source to the destination through the pipeline.
+	 *
+	 * @param source      The source file/folder.
+	 * @param destination The destination file/folder.
+	 * @return Number of bytes transferred.
+	 * @throws IOException On error reading the source or writing the destination.
+	 */
+	public long copy(FileObject source, FileObject destination) throws IOException {
+		if (FileType.FOLDER.equals(source.getType())) {
+			destination.createFolder();
+			long total = 0;
+			for (FileObject child : source.getChildren()) {
+				total += copy(child, destination.resolveFile(child.getName().getBaseName()));
+			}
+			return total;
+		}
+		InputStream in = null;
+		OutputStream out = null;
+		try {
+			in = source.getContent().getInputStream();
+			out = destination.getContent().getOutputStream();
+			long total = transfer(in, out);
+			if (log.isDebugEnabled()) {
+				log.debug("Pipelined copy of " + total + " bytes completed to "
+				          + destination.getName().getFriendlyURI());
+			}
+			return total;
+		} finally {
+			closeQuietly(in);
+			closeQuietly(out);
+			closeQuietly(source);
+			closeQuietly(destination);
+		}
+	}
+
+	/**
+	 * Transfer all the bytes from the input stream to the output stream using a reader and a writer thread.
+	 * The streams are not closed.
+	 *
+	 * @param in  The source stream.
+	 * @param out The destination stream.
+	 * @return Number of bytes transferred.
+	 * @throws IOException On error reading or writing.
+	 */
+	public long transfer(final InputStream in, OutputStream out) throws IOException {
+		final BufferRing ring = new BufferRing(bufferSize, bufferCount);
+		Future<Long> writer = startWriter(ring, out);
+		Future<Void> reader = executor.submit(new Callable<Void>() {
+			@Override
+			public Void call() throws IOException {
+				try {
+					while (true) {
+						Chunk chunk = ring.takeFree();
+						chunk.length = fill(in, chunk.data);
+						if (chunk.length <= 0) {
+							ring.putFilled(Chunk.END);
+							return null;
+						}
+						ring.putFilled(chunk);
+					}
+				} catch (IOException | RuntimeException e) {
+					ring.abort(e);
+					throw e;
+				}
+			}
+		});
+		await(reader);
+		return await(writer);
+	}
+
+	/**
+	 * Create an output stream whose content is handed over to a writer thread. The calling thread only fills
+	 * buffers, so it can keep producing data while the previous buffers are written to the destination.
+	 * Closing the returned stream waits for the writer and closes the destination stream.
+	 *
+	 * @param out The destination stream.
+	 * @return The pipelined output stream.
+	 */
+	public OutputStream newOutputStream(OutputStream out) {
+		BufferRing ring = new BufferRing(bufferSize, bufferCount);
+		return new PipelinedOutputStream(ring, startWriter(ring, out), out);
+	}
+
+	/**
+	 * Start the writer thread, which drains filled buffers to the output stream until the end marker is seen.
+	 *
+	 * @param ring The buffer ring.
+	 * @param out  The destination stream.
+	 * @return Future holding the number of bytes written.
+	 */
+	private Future<Long> startWriter(final BufferRing ring, final OutputStream out) {
+		return executor.submit(new Callable<Long>() {
+			@Override
+			public Long call() throws IOException {
+				long total = 0;
+				try {
+					Chunk chunk;
+					while ((chunk = ring.takeFilled()) != Chunk.END) {
+						out.write(chunk.data, 0, chunk.length);
+						total += chunk.length;
+						ring.release(chunk);
+					}
+					out.flush();
+				} catch (IOException | RuntimeException e) {
+					ring.abort(e);
+					throw e;
+				}
+				return total;
+			}
+		});
+	}
+
+	/**
+	 * Read from the stream until the buffer is full or the end of the stream is reached.
+	 *
+	 * @param in     The source stream.
+	 * @param buffer The buffer to fill.
+	 * @return Number of bytes read, or -1 at the end of the stream.
+	 * @throws IOException On error reading.
+	 */
+	private static int fill(InputStream in, byte[] buffer) throws IOException {
+		int total = 0;
+		int read;
+		while (total < buffer.length && (read = in.read(buffer, total, buffer.length - total)) != -1) {
+			total += read;
+		}
+		return total == 0 ? -1 : total;
+	}
+
+	/**
+	 * Wait for a pipeline thread and re-throw its failure.
+	 *
+	 * @param future The pipeline thread.
+	 * @param <T>    Result type.
+	 * @return Result of the thread.
+	 * @throws IOException If the thread failed or the wait was interrupted.
+	 */
+	private static <T> T await(Future<T> future) throws IOException {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			future.cancel(true);
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for the pipelined transfer");
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new IOException("Error in pipelined transfer", e.getCause());
+		}
+	}
+
+	private static void closeQuietly(AutoCloseable closeable) {
+		if (closeable != null) {
+			try {
+				closeable.close();
+			} catch (Exception e) {
+				log.error("Error while closing " + closeable, e);
+			}
+		}
+	}
+
+	/**
+	 * A reusable buffer and the number of valid bytes in it.
+	 */
+	private static class Chunk {
+		private static final Chunk END = new Chunk(0);
+		private final byte[] data;
+		private int length;
+
+		Chunk(int size) {
+			data = new byte[size];
+		}
+	}
+
+	/**
+	 * Bounded ring of buffers shared by the producer and the consumer. Free buffers go from the consumer back to
+	 * the producer, filled buffers go from the producer to the consumer. A failure on either side aborts the ring
+	 * so that the other side does not block forever.
+	 */
+	private static class BufferRing {
+		private final BlockingQueue<Chunk> free;
+		private final BlockingQueue<Chunk> filled;
+		private volatile Throwable failure;
+
+		BufferRing(int bufferSize, int bufferCount) {
+			free = new ArrayBlockingQueue<>(bufferCount);
+			filled = new ArrayBlockingQueue<>(bufferCount + 1);
+			for (int i = 0; i < bufferCount; i++) {
+				free.add(new Chunk(bufferSize));
+			}
+		}
+
+		Chunk takeFree() throws IOException {
+			return take(free);
+		}
+
+		Chunk takeFilled() throws IOException {
+			return take(filled);
+		}
+
+		void putFilled(Chunk chunk) throws IOException {
+			checkFailure();
+			if (!filled.offer(chunk)) {
+				throw new IOException("Pipeline buffer ring overflow");
+			}
+		}
+
+		void release(Chunk chunk) {
+			chunk.length = 0;
+			free.offer(chunk);
+		}
+
+		void abort(Throwable cause) {
+			if (failure == null) {
+				failure = cause;
+			}
+		}
+
+		private Chunk take(BlockingQueue<Chunk> queue) throws IOException {
+			try {
+				Chunk chunk;
+				while ((chunk = queue.poll(100, TimeUnit.MILLISECONDS)) == null) {
+					checkFailure();
+				}
+				return chunk;
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while waiting for a pipeline buffer");
+			}
+		}
+
+		private void checkFailure() throws IOException {
+			if (failure != null) {
+				throw new IOException("Pipelined transfer aborted", failure);
+			}
+		}
+	}
+
+	/**
+	 * Output stream that fills ring buffers in the calling thread and hands them over to the writer thread.
+	 */
+	private static class PipelinedOutputStream extends OutputStream {
+		private final BufferRing ring;
+		private final Future<Long> writer;
+		private final OutputStream target;
+		private Chunk current;
+		private boolean closed;
+
+		PipelinedOutputStream(BufferRing ring, Future<Long> writer, OutputStream target) {
+			this.ring = ring;
+			this.writer = writer;
+			this.target = target;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[] { (byte) b }, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] bytes, int offset, int length) throws IOException {
+			while (length > 0) {
+				if (current == null) {
+					current = ring.takeFree();
+				}
+				int count = Math.min(length, current.data.length - current.length);
+				System.arraycopy(bytes, offset, current.data, current.length, count);
+				current.length += count;
+				offset += count;
+				length -= count;
+				if (current.length == current.data.length) {
+					ring.putFilled(current);
+					current = null;
+				}
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			try {
+				if (current != null && current.length > 0) {
+					ring.putFilled(current);
+				}
+				current = null;
+				ring.putFilled(Chunk.END);
+				await(writer);
+			} catch (IOException e) {
+				writer.cancel(true);
+				throw e;
+			} finally {
+				target.close();
+			}
+		}
+	}
+}
\ No newline at end of file
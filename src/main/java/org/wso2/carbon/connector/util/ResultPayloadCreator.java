@@ -39,6 +39,7 @@ import org.apache.synapse.MessageContext;
 import org.apache.synapse.SynapseException;
 import org.apache.synapse.transport.passthru.util.BinaryRelayBuilder;
 
+import javax.activation.DataSource;
 import javax.mail.internet.ContentType;
 import javax.mail.internet.ParseException;
 import java.io.IOException;
@@ -74,13 +75,24 @@ public class ResultPayloadCreator {
 	 * @param resultStatus   Boolean value of the result to display.
 	 */
 	public static void generateResult(MessageContext messageContext, boolean resultStatus) {
+		preparePayload(messageContext, createResult(resultStatus));
+	}
+
+	/**
+	 * Create the result element holding the result(true/false) of a file operation. Operations may add further
+	 * details to the returned element before setting it as the payload.
+	 *
+	 * @param resultStatus Boolean value of the result to display.
+	 * @return The result element.
+	 */
+	public static OMElement createResult(boolean resultStatus) {
 		OMFactory factory = OMAbstractFactory.getOMFactory();
 		OMNamespace ns = factory.createOMNamespace(FileConstants.FILECON, FileConstants.NAMESPACE);
 		OMElement result = factory.createOMElement(FileConstants.RESULT, ns);
 		OMElement messageElement = factory.createOMElement(FileConstants.SUCCESS, ns);
 		messageElement.setText(String.valueOf(resultStatus));
 		result.addChild(messageElement);
-		preparePayload(messageContext, result);
+		return result;
 	}
 
 	/**
@@ -94,27 +106,34 @@ public class ResultPayloadCreator {
 	 */
 
 	public static boolean buildFile(FileObject file, MessageContext msgCtx, String contentType, boolean streaming) {
-		ManagedDataSource dataSource = null;
-		InputStream in = null;
 		try {
-			if (StringUtils.isEmpty(contentType)) {
-				if (file.getName().getExtension().toLowerCase().endsWith("xml")) {
-					contentType = "application/xml";
-				} else if (file.getName().getExtension().toLowerCase().endsWith("txt")) {
-					contentType = "text/plain";
-				}
-			} else {
-				// Extract the charset encoding from the configured content type and
-				// set the CHARACTER_SET_ENCODING property as e.g. SOAPBuilder relies on this.
-				try {
-					String charSetEnc = new ContentType(contentType).getParameter("charset");
-					msgCtx.setProperty(Constants.Configuration.CHARACTER_SET_ENCODING, charSetEnc);
-				} catch (ParseException ex) {
-					throw new SynapseException("Invalid encoding type.", ex);
-				}
+			contentType = getContentType(file.getName().getExtension(), contentType, msgCtx);
+			return buildFile(new FileObjectDataSource(file, contentType), msgCtx, contentType, streaming);
+		} finally {
+			try {
+				file.close();
+			} catch (FileSystemException e) {
+				log.error("Error while closing the FileObject", e);
 			}
+		}
+	}
+
+	/**
+	 * Read the content of a data source, such as a zip entry, and set it as the current SOAPEnvelope.
+	 *
+	 * @param dataSource  Data source which needs to be read.
+	 * @param msgCtx      Message Context that is used in the file read mediation flow.
+	 * @param contentType content type, already resolved with {@link #getContentType(String, String, MessageContext)}.
+	 * @param streaming   streaming mode (true/false).
+	 * @return true, if the content is read successfully.
+	 */
+	public static boolean buildFile(DataSource dataSource, MessageContext msgCtx, String contentType,
+	                                boolean streaming) {
+		ManagedDataSource managedDataSource = null;
+		InputStream in = null;
+		try {
 			if (log.isDebugEnabled()) {
-				log.debug("Processed file : " + file + " of Content-type : " + contentType);
+				log.debug("Processed file : " + dataSource.getName() + " of Content-type : " + contentType);
 			}
 			org.apache.axis2.context.MessageContext axis2MsgCtx = ((org.apache.synapse.core.axis2.
 					Axis2MessageContext) msgCtx).getAxis2MessageContext();
@@ -137,11 +156,11 @@ public class ResultPayloadCreator {
 			// set the message payload to the message context
 			OMElement documentElement;
 			if (builder instanceof DataSourceMessageBuilder && streaming) {
-				dataSource = ManagedDataSourceFactory.create(new FileObjectDataSource(file, contentType));
-				documentElement =
-						((DataSourceMessageBuilder) builder).processDocument(dataSource, contentType, axis2MsgCtx);
+				managedDataSource = ManagedDataSourceFactory.create(dataSource);
+				documentElement = ((DataSourceMessageBuilder) builder)
+						.processDocument(managedDataSource, contentType, axis2MsgCtx);
 			} else {
-				in = new AutoCloseInputStream(file.getContent().getInputStream());
+				in = new AutoCloseInputStream(dataSource.getInputStream());
 				documentElement = builder.processDocument(in, contentType, axis2MsgCtx);
 			}
 			// We need this to build the complete message before closing the stream
@@ -153,8 +172,8 @@ public class ResultPayloadCreator {
 		} catch (Exception e) {
 			throw new SynapseException("Error while processing the file/folder", e);
 		} finally {
-			if (dataSource != null) {
-				dataSource.destroy();
+			if (managedDataSource != null) {
+				managedDataSource.destroy();
 			}
 			if (in != null) {
 				try {
@@ -163,12 +182,36 @@ public class ResultPayloadCreator {
 					log.error("Error while closing the InputStream");
 				}
 			}
+		}
+		return true;
+	}
+
+	/**
+	 * Get the content type to build the message with. When none is configured, it is derived from the extension.
+	 * The charset of a configured content type is set as the CHARACTER_SET_ENCODING property.
+	 *
+	 * @param extension   Extension of the file name.
+	 * @param contentType The configured content type, or empty.
+	 * @param msgCtx      Message Context that is used in the file read mediation flow.
+	 * @return The content type, or null if it is unknown.
+	 */
+	public static String getContentType(String extension, String contentType, MessageContext msgCtx) {
+		if (StringUtils.isEmpty(contentType)) {
+			if (extension.toLowerCase().endsWith("xml")) {
+				contentType = "application/xml";
+			} else if (extension.toLowerCase().endsWith("txt")) {
+				contentType = "text/plain";
+			}
+		} else {
+			// Extract the charset encoding from the configured content type and
+			// set the CHARACTER_SET_ENCODING property as e.g. SOAPBuilder relies on this.
 			try {
-				file.close();
-			} catch (FileSystemException e) {
-				log.error("Error while closing the FileObject", e);
+				String charSetEnc = new ContentType(contentType).getParameter("charset");
+				msgCtx.setProperty(Constants.Configuration.CHARACTER_SET_ENCODING, charSetEnc);
+			} catch (ParseException ex) {
+				throw new SynapseException("Invalid encoding type.", ex);
 			}
 		}
-		return true;
+		return contentType;
 	}
 }
\ No newline at end of file
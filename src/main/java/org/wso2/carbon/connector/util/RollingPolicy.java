@@ -0,0 +1,85 @@
+/*
+* Copyright (c) 2017, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+*
+* WSO2 Inc. licenses this file to you under the Apache License,
+* Version 2.0 (the "License"); you may not use this file except
+* in compliance with the License.
+* You may obtain a copy of the License at
+*
+*http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package org.wso2.carbon.connector.util;
+
+import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.lang.StringUtils;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+/**
+ * Rotation policy of an append file. The active file is rolled to a new name once it grows beyond the maximum size
+ * or once the roll interval has elapsed since the segment was started.
+ */
+public class RollingPolicy {
+	private final long maxSize;
+	private final long interval;
+	private final String namePattern;
+	private final boolean compress;
+
+	/**
+	 * @param maxSize     Size in bytes after which the file is rolled, or 0 to disable size based rolling.
+	 * @param interval    Time in milliseconds after which the file is rolled, or 0 to disable time based rolling.
+	 * @param namePattern Name of the rolled file. {name}, {ext}, {timestamp} and {index} are replaced.
+	 * @param compress    Whether to gzip the rolled file.
+	 */
+	public RollingPolicy(long maxSize, long interval, String namePattern, boolean compress) {
+		this.maxSize = maxSize;
+		this.interval = interval;
+		this.namePattern = StringUtils.isEmpty(namePattern) ? FileConstants.DEFAULT_ROLL_PATTERN : namePattern;
+		this.compress = compress;
+	}
+
+	/**
+	 * Check whether the active segment has to be rolled before the next write.
+	 *
+	 * @param size         Current size of the active segment.
+	 * @param length       Number of bytes about to be written.
+	 * @param segmentStart Time at which the active segment was started.
+	 * @return true, if the segment has to be rolled.
+	 */
+	public boolean shouldRoll(long size, int length, long segmentStart) {
+		if (size == 0) {
+			return false;
+		}
+		return (maxSize > 0 && size + length > maxSize)
+		       || (interval > 0 && System.currentTimeMillis() - segmentStart >= interval);
+	}
+
+	/**
+	 * Build the name of a rolled segment.
+	 *
+	 * @param baseName     Name of the active file.
+	 * @param segmentStart Time at which the segment was started.
+	 * @param index        Sequence number of the segment.
+	 * @return Name of the rolled segment.
+	 */
+	public String getRolledName(String baseName, long segmentStart, int index) {
+		String extension = FilenameUtils.getExtension(baseName);
+		String timestamp = new SimpleDateFormat(FileConstants.ROLL_TIMESTAMP_FORMAT).format(new Date(segmentStart));
+		return namePattern.replace("{name}", FilenameUtils.getBaseName(baseName))
+		                  .replace("{ext}", extension.isEmpty() ? "" : "." + extension)
+		                  .replace("{timestamp}", timestamp)
+		                  .replace("{index}", String.valueOf(index));
+	}
+
+	public boolean isCompress() {
+		return compress;
+	}
+}
\ No newline at end of file
@@ -0,0 +1,208 @@
+/*
+* Copyright (c) 2017, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+*
+* WSO2 Inc. licenses this file to you under the Apache License,
+* Version 2.0 (the "License"); you may not use this file except
+* in compliance with the License.
+* You may obtain a copy of the License at
+*
+*http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package org.wso2.carbon.connector.util;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.commons.vfs2.Capability;
+import org.apache.commons.vfs2.FileObject;
+import org.apache.commons.vfs2.FileSystemException;
+import org.apache.commons.vfs2.FileSystemOptions;
+import org.apache.commons.vfs2.RandomAccessContent;
+import org.apache.commons.vfs2.impl.StandardFileSystemManager;
+import org.apache.commons.vfs2.util.RandomAccessMode;
+import org.apache.synapse.SynapseException;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Downloads a single remote file by splitting it into byte ranges and fetching the ranges concurrently over
+ * separate sessions. Each range is written straight into a pre-sized local file at its own offset.
+ */
+public class SegmentedFileTransfer {
+	private static final Log log = LogFactory.getLog(SegmentedFileTransfer.class);
+	private final FileSystemOptions opts;
+	private final int segmentCount;
+
+	public SegmentedFileTransfer(FileSystemOptions opts, int segmentCount) {
+		this.opts = opts;
+		this.segmentCount = Math.max(1, segmentCount);
+	}
+
+	/**
+	 * Download the source file into the given local file.
+	 *
+	 * @param source Location of the remote file.
+	 * @param target Local file to be written. It is created or truncated to the size of the source.
+	 * @return Number of bytes transferred.
+	 */
+	public long download(final String source, File target) {
+		StandardFileSystemManager manager = FileConnectorUtils.getManager();
+		long size;
+		final boolean rangedReads;
+		try {
+			FileObject file = manager.resolveFile(source, opts);
+			if (!file.exists()) {
+				throw new SynapseException("The file location does not exist.");
+			}
+			size = file.getContent().getSize();
+			rangedReads = file.getFileSystem().hasCapability(Capability.RANDOM_ACCESS_READ);
+		} catch (FileSystemException e) {
+			throw new SynapseException("Unable to get the size of the file", e);
+		} finally {
+			manager.close();
+		}
+		RandomAccessFile targetFile = null;
+		try {
+			File parent = target.getParentFile();
+			if (parent != null && !parent.exists() && !parent.mkdirs()) {
+				throw new SynapseException("Unable to create the folder " + parent);
+			}
+			targetFile = new RandomAccessFile(target, "rw");
+			targetFile.setLength(size);
+			final FileChannel channel = targetFile.getChannel();
+			List<Segment> segments;
+			if (rangedReads) {
+				segments = split(size);
+			} else {
+				// Without ranged reads every segment would read the file from its start, so fetch it in one piece
+				if (log.isDebugEnabled()) {
+					log.debug("Random access is not supported for " + source + ", downloading it as a single stream.");
+				}
+				segments = Collections.singletonList(new Segment(0, size));
+			}
+			ParallelFileExecutor.execute(segments, segmentCount, new ParallelFileExecutor.Task<Segment>() {
+				@Override
+				public void execute(Segment segment, StandardFileSystemManager manager) throws IOException {
+					fetchSegment(source, segment, channel, manager, rangedReads);
+				}
+			});
+			// Every segment has checked that all of its bytes were written
+			channel.force(false);
+		} catch (IOException e) {
+			throw new SynapseException("Error while downloading the file in segments", e);
+		} finally {
+			if (targetFile != null) {
+				try {
+					targetFile.close();
+				} catch (IOException e) {
+					log.error("Error while closing the RandomAccessFile", e);
+				}
+			}
+		}
+		if (log.isDebugEnabled()) {
+			log.debug("Segmented transfer of " + size + " bytes completed to " + target);
+		}
+		return size;
+	}
+
+	/**
+	 * Split the file into contiguous ranges, one per session. Files smaller than the minimum segment size are
+	 * fetched as a single range.
+	 *
+	 * @param size Size of the file.
+	 * @return List of ranges covering the whole file.
+	 */
+	private List<Segment> split(long size) {
+		long count = Math.min(segmentCount, Math.max(1, size / FileConstants.MIN_SEGMENT_SIZE));
+		long segmentSize = (size + count - 1) / count;
+		List<Segment> segments = new ArrayList<>();
+		for (long offset = 0; offset < size; offset += segmentSize) {
+			segments.add(new Segment(offset, Math.min(segmentSize, size - offset)));
+		}
+		return segments;
+	}
+
+	/**
+	 * Fetch a single range of the source and write it at the same offset of the target.
+	 *
+	 * @param source      Location of the remote file.
+	 * @param segment     The range to fetch.
+	 * @param channel     Channel of the local target file.
+	 * @param manager     File system manager owned by the current worker.
+	 * @param rangedReads Whether the range is read through random access, else the whole file is a single range.
+	 * @throws IOException On error reading the range or if fewer bytes than expected were received.
+	 */
+	private void fetchSegment(String source, Segment segment, FileChannel channel, StandardFileSystemManager manager,
+	                          boolean rangedReads) throws IOException {
+		FileObject file = manager.resolveFile(source, opts);
+		RandomAccessContent content = null;
+		InputStream in = null;
+		try {
+			if (rangedReads) {
+				content = file.getContent().getRandomAccessContent(RandomAccessMode.READ);
+				content.seek(segment.offset);
+				in = content.getInputStream();
+			} else {
+				in = file.getContent().getInputStream();
+			}
+			byte[] bytes = new byte[FileConstants.BUFFER_SIZE];
+			long position = segment.offset;
+			long remaining = segment.length;
+			int read;
+			while (remaining > 0 && (read = in.read(bytes, 0, (int) Math.min(bytes.length, remaining))) != -1) {
+				ByteBuffer buffer = ByteBuffer.wrap(bytes, 0, read);
+				while (buffer.hasRemaining()) {
+					position += channel.write(buffer, position);
+				}
+				remaining -= read;
+			}
+			if (remaining != 0) {
+				throw new IOException("Segment at offset " + segment.offset + " is incomplete, " + remaining
+				                      + " bytes missing");
+			}
+		} finally {
+			if (in != null) {
+				try {
+					in.close();
+				} catch (IOException e) {
+					log.error("Error while closing the InputStream", e);
+				}
+			}
+			if (content != null) {
+				try {
+					content.close();
+				} catch (IOException e) {
+					log.error("Error while closing the RandomAccessContent", e);
+				}
+			}
+			file.close();
+		}
+	}
+
+	/**
+	 * A byte range of the source file.
+	 */
+	private static class Segment {
+		private final long offset;
+		private final long length;
+
+		Segment(long offset, long length) {
+			this.offset = offset;
+			this.length = length;
+		}
+	}
+}
\ No newline at end of file
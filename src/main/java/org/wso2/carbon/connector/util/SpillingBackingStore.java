@@ -0,0 +1,73 @@
+/*
+* Copyright (c) 2017, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+*
+* WSO2 Inc. licenses this file to you under the Apache License,
+* Version 2.0 (the "License"); you may not use this file except
+* in compliance with the License.
+* You may obtain a copy of the License at
+*
+*http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package org.wso2.carbon.connector.util;
+
+import org.apache.commons.compress.parallel.ScatterGatherBackingStore;
+import org.apache.commons.io.output.DeferredFileOutputStream;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Backing store for a compressed zip entry. Small entries stay in memory, larger ones spill to a temporary file
+ * that is deleted when the store is closed.
+ */
+public class SpillingBackingStore implements ScatterGatherBackingStore {
+	private static final Log log = LogFactory.getLog(SpillingBackingStore.class);
+	private final DeferredFileOutputStream out;
+	private boolean closedForWriting;
+
+	/**
+	 * @param threshold Number of bytes kept in memory before the store spills to a temporary file.
+	 */
+	public SpillingBackingStore(int threshold) {
+		out = new DeferredFileOutputStream(threshold, FileConstants.SCATTER_PREFIX, null, null);
+	}
+
+	@Override
+	public InputStream getInputStream() throws IOException {
+		return out.isInMemory() ? new ByteArrayInputStream(out.getData()) : new FileInputStream(out.getFile());
+	}
+
+	@Override
+	public void writeOut(byte[] data, int offset, int length) throws IOException {
+		out.write(data, offset, length);
+	}
+
+	@Override
+	public void closeForWriting() throws IOException {
+		if (!closedForWriting) {
+			closedForWriting = true;
+			out.close();
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		closeForWriting();
+		File file = out.getFile();
+		if (!out.isInMemory() && file != null && file.exists() && !file.delete()) {
+			log.warn("Unable to delete the temporary file " + file);
+		}
+	}
+}
\ No newline at end of file
@@ -0,0 +1,275 @@
+/*
+* Copyright (c) 2017, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+*
+* WSO2 Inc. licenses this file to you under the Apache License,
+* Version 2.0 (the "License"); you may not use this file except
+* in compliance with the License.
+* You may obtain a copy of the License at
+*
+*http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package org.wso2.carbon.connector.util;
+
+import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.commons.vfs2.FileObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Output stream that rolls over to numbered part files once the current file reaches the maximum size. The content is
+ * written to the target file until the first roll over, which renames the target to the first part. In line mode the
+ * content is only split after a line break, unless a single line is larger than the maximum size. A line is only held
+ * in memory while it may still fit into the current part; once it starts a part it is written straight through. When
+ * the content has been split, a manifest listing the parts is written next to them on close.
+ */
+public class SplittingOutputStream extends OutputStream {
+	private static final Log log = LogFactory.getLog(SplittingOutputStream.class);
+	private final FileObject target;
+	private final long maxSize;
+	private final boolean lineMode;
+	private final String compression;
+	private final PipelinedTransfer pipeline;
+	private final ByteArrayOutputStream record = new ByteArrayOutputStream();
+	private final List<String> partNames = new ArrayList<>();
+	private final List<Long> partSizes = new ArrayList<>();
+	private final OutputStream splitter = new OutputStream() {
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[] { (byte) b }, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] bytes, int offset, int length) throws IOException {
+			writeSplitting(bytes, offset, length);
+		}
+	};
+	private FileObject part;
+	private OutputStream out;
+	private long size;
+	private boolean streamingLine;
+	private boolean closed;
+
+	/**
+	 * @param target      The file to write to. Its name is used to derive the names of the parts.
+	 * @param maxSize     Maximum size of a part in bytes, before compression.
+	 * @param lineMode    Whether to split only after a line break.
+	 * @param compression Compression applied to each part, gzip, deflate or none.
+	 * @param pipeline    Pipelined transfer used to upload the parts, or null to write them directly.
+	 * @throws IOException On error opening the target file.
+	 */
+	public SplittingOutputStream(FileObject target, long maxSize, boolean lineMode, String compression,
+	                             PipelinedTransfer pipeline) throws IOException {
+		this.target = target;
+		this.maxSize = maxSize;
+		this.lineMode = lineMode;
+		this.compression = compression;
+		this.pipeline = pipeline;
+		open(target);
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		write(new byte[] { (byte) b }, 0, 1);
+	}
+
+	@Override
+	public void write(byte[] bytes, int offset, int length) throws IOException {
+		if (!lineMode) {
+			writeSplitting(bytes, offset, length);
+			return;
+		}
+		int end = offset + length;
+		int start = offset;
+		for (int i = offset; i < end; i++) {
+			if (bytes[i] == '\n') {
+				writeLine(bytes, start, i + 1 - start);
+				writeRecord();
+				streamingLine = false;
+				start = i + 1;
+			}
+		}
+		writeLine(bytes, start, end - start);
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		writeRecord();
+		closePart();
+		if (partNames.size() > 1) {
+			writeManifest();
+		}
+	}
+
+	/**
+	 * Get the number of files the content was written to.
+	 *
+	 * @return Number of parts, 1 if the content was not split.
+	 */
+	public int getPartCount() {
+		return partNames.size();
+	}
+
+	/**
+	 * Get the manifest file written for the parts.
+	 *
+	 * @return The manifest file.
+	 * @throws IOException On error resolving the manifest file.
+	 */
+	public FileObject getManifest() throws IOException {
+		return target.getParent().resolveFile(target.getName().getBaseName() + FileConstants.MANIFEST_EXTENSION);
+	}
+
+	/**
+	 * Write a piece of the current line. The line is buffered while it fits into the current part. A line that starts
+	 * a part, or that does not fit and therefore starts the next part, is written straight to the part instead.
+	 *
+	 * @param bytes  The bytes to write.
+	 * @param offset Start offset in the bytes.
+	 * @param length Number of bytes to write.
+	 * @throws IOException On error writing the part.
+	 */
+	private void writeLine(byte[] bytes, int offset, int length) throws IOException {
+		if (length == 0) {
+			return;
+		}
+		if (!streamingLine) {
+			if (size == 0 && record.size() == 0) {
+				streamingLine = true;
+			} else if (size + record.size() + length > maxSize) {
+				// The line does not fit into the current part, so it starts the next one
+				if (size > 0) {
+					roll();
+				}
+				writeRecord();
+				streamingLine = true;
+			}
+		}
+		if (streamingLine) {
+			writeSplitting(bytes, offset, length);
+		} else {
+			record.write(bytes, offset, length);
+		}
+	}
+
+	/**
+	 * Write the buffered line to the current part.
+	 *
+	 * @throws IOException On error writing the part.
+	 */
+	private void writeRecord() throws IOException {
+		if (record.size() == 0) {
+			return;
+		}
+		record.writeTo(splitter);
+		record.reset();
+	}
+
+	/**
+	 * Write the bytes, starting a new part whenever the current one is full.
+	 *
+	 * @param bytes  The bytes to write.
+	 * @param offset Start offset in the bytes.
+	 * @param length Number of bytes to write.
+	 * @throws IOException On error writing the part.
+	 */
+	private void writeSplitting(byte[] bytes, int offset, int length) throws IOException {
+		while (length > 0) {
+			if (size >= maxSize) {
+				roll();
+			}
+			int count = (int) Math.min(length, maxSize - size);
+			out.write(bytes, offset, count);
+			size += count;
+			offset += count;
+			length -= count;
+		}
+	}
+
+	/**
+	 * Close the current part and start the next one. The first roll over renames the target to the first part.
+	 *
+	 * @throws IOException On error closing, renaming or opening the parts.
+	 */
+	private void roll() throws IOException {
+		closePart();
+		if (partNames.size() == 1) {
+			FileObject first = resolvePart(1);
+			target.moveTo(first);
+			partNames.set(0, first.getName().getBaseName());
+			first.close();
+		}
+		open(resolvePart(partNames.size() + 1));
+	}
+
+	private void open(FileObject file) throws IOException {
+		part = file;
+		OutputStream stream = file.getContent().getOutputStream();
+		if (pipeline != null) {
+			stream = pipeline.newOutputStream(stream);
+		}
+		out = FileConnectorUtils.compress(stream, compression);
+		size = 0;
+	}
+
+	private void closePart() throws IOException {
+		// Closing finishes the compressed content and waits for the pipelined upload
+		out.close();
+		partNames.add(part.getName().getBaseName());
+		partSizes.add(size);
+		if (part != target) {
+			part.close();
+		}
+		if (log.isDebugEnabled()) {
+			log.debug("Wrote " + size + " bytes to " + part.getName().getFriendlyURI());
+		}
+	}
+
+	private FileObject resolvePart(int index) throws IOException {
+		String name = target.getName().getBaseName();
+		String extension = FilenameUtils.getExtension(name);
+		String partName = FilenameUtils.getBaseName(name) + FileConstants.PART_SUFFIX + index
+		                  + (extension.isEmpty() ? "" : "." + extension);
+		return target.getParent().resolveFile(partName);
+	}
+
+	/**
+	 * Write the manifest listing the name and the size of every part, in order.
+	 *
+	 * @throws IOException On error writing the manifest.
+	 */
+	private void writeManifest() throws IOException {
+		StringBuilder manifest = new StringBuilder();
+		for (int i = 0; i < partNames.size(); i++) {
+			manifest.append(partNames.get(i)).append(',').append(partSizes.get(i)).append('\n');
+		}
+		FileObject manifestFile = getManifest();
+		OutputStream manifestStream = null;
+		try {
+			manifestStream = manifestFile.getContent().getOutputStream();
+			manifestStream.write(manifest.toString().getBytes(StandardCharsets.UTF_8));
+			manifestStream.close();
+		} finally {
+			IOUtils.closeQuietly(manifestStream);
+			manifestFile.close();
+		}
+	}
+}
\ No newline at end of file
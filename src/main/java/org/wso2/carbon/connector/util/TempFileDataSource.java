@@ -0,0 +1,116 @@
+/*
+* Copyright (c) 2017, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+*
+* WSO2 Inc. licenses this file to you under the Apache License,
+* Version 2.0 (the "License"); you may not use this file except
+* in compliance with the License.
+* You may obtain a copy of the License at
+*
+*http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package org.wso2.carbon.connector.util;
+
+import org.apache.axiom.attachments.SizeAwareDataSource;
+import org.apache.commons.io.input.ProxyInputStream;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Data source that reads a local temporary file, such as a file downloaded in segments, in streaming mode. The file
+ * is deleted as soon as a stream of it is closed, so the content of a streamed message can be read once.
+ */
+public class TempFileDataSource implements SizeAwareDataSource {
+	private static final Log log = LogFactory.getLog(TempFileDataSource.class);
+	private final File file;
+	private final String name;
+	private final String contentType;
+
+	/**
+	 * @param file        The temporary file.
+	 * @param name        Name of the content, used in place of the temporary file name.
+	 * @param contentType Content type of the file.
+	 */
+	public TempFileDataSource(File file, String name, String contentType) {
+		this.file = file;
+		this.name = name;
+		this.contentType = contentType;
+	}
+
+	/**
+	 * Get the file size.
+	 *
+	 * @return Size of the file, or 0 once it has been deleted.
+	 */
+	public long getSize() {
+		return file.length();
+	}
+
+	/**
+	 * Get the content type.
+	 *
+	 * @return Content type.
+	 */
+	public String getContentType() {
+		return contentType;
+	}
+
+	/**
+	 * Get the name of the content.
+	 *
+	 * @return The name of the content.
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Get the input stream. Closing the stream deletes the file.
+	 *
+	 * @return Input stream.
+	 * @throws IOException If the file has already been read and deleted.
+	 */
+	public InputStream getInputStream() throws IOException {
+		return new ProxyInputStream(new FileInputStream(file)) {
+			@Override
+			public void close() throws IOException {
+				try {
+					super.close();
+				} finally {
+					delete();
+				}
+			}
+		};
+	}
+
+	/**
+	 * The temporary file is read only.
+	 *
+	 * @return Never returns.
+	 * @throws IOException Always.
+	 */
+	public OutputStream getOutputStream() throws IOException {
+		throw new IOException("The temporary file " + file + " is read only");
+	}
+
+	/**
+	 * Delete the temporary file, if it still exists.
+	 */
+	public void delete() {
+		if (file.exists() && !file.delete()) {
+			log.warn("Unable to delete the temporary file " + file);
+		}
+	}
+}
\ No newline at end of file
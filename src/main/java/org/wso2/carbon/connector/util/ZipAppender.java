@@ -0,0 +1,387 @@
+/*
+* Copyright (c) 2017, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+*
+* WSO2 Inc. licenses this file to you under the Apache License,
+* Version 2.0 (the "License"); you may not use this file except
+* in compliance with the License.
+* You may obtain a copy of the License at
+*
+*http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package org.wso2.carbon.connector.util;
+
+import org.apache.commons.compress.archivers.zip.ZipLong;
+import org.apache.commons.compress.archivers.zip.ZipUtil;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.CloseShieldOutputStream;
+import org.apache.commons.io.output.CountingOutputStream;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.commons.vfs2.FileObject;
+import org.apache.commons.vfs2.FileSystemException;
+import org.apache.commons.vfs2.RandomAccessContent;
+import org.apache.commons.vfs2.Selectors;
+import org.apache.commons.vfs2.util.RandomAccessMode;
+import org.apache.synapse.SynapseException;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+/**
+ * Adds entries to an existing zip archive without rewriting the existing entries. The new entries are written over the
+ * old central directory, followed by the old directory records, the records of the new entries and a new end record.
+ * Zip64 records are written whenever the archive or an entry outgrows the classic limits. A local archive is updated
+ * in place. A remote archive is downloaded, updated locally and uploaded again, which still avoids decompressing and
+ * compressing the existing entries.
+ */
+public class ZipAppender {
+	private static final Log log = LogFactory.getLog(ZipAppender.class);
+	private static final int DD_SIZE = 16;
+	private static final int ZIP64_DD_SIZE = 24;
+	private static final int ZIP64_LOCAL_EXTRA_SIZE = 20;
+	private static final int VERSION = 20;
+	private static final int ZIP64_VERSION = 45;
+	private static final int FLAGS = ZipCentralDirectory.UTF8_FLAG | 1 << 3;
+	private static final int MAX_ENTRIES = 0xFFFF;
+	private final int compressionLevel;
+
+	/**
+	 * @param compressionLevel Deflate level from 0 to 9, or -1 for the default level.
+	 */
+	public ZipAppender(int compressionLevel) {
+		this.compressionLevel = compressionLevel;
+	}
+
+	/**
+	 * Add the files to the archive. Entry names are the paths of the files relative to the root folder.
+	 *
+	 * @param archive The existing zip archive.
+	 * @param root    The folder the entry names are relative to.
+	 * @param files   The files to add.
+	 * @throws IOException On error reading a file or updating the archive.
+	 */
+	public void append(FileObject archive, FileObject root, List<FileObject> files) throws IOException {
+		if (FileConnectorUtils.isLocal(archive)) {
+			appendInPlace(archive, root, files);
+		} else {
+			appendThroughCopy(archive, root, files);
+		}
+		if (log.isDebugEnabled()) {
+			log.debug("Appended " + files.size() + " entries to " + archive.getName().getFriendlyURI());
+		}
+	}
+
+	/**
+	 * Update a local archive in place. If writing the new entries fails, the old central directory is restored.
+	 *
+	 * @param archive The local archive.
+	 * @param root    The folder the entry names are relative to.
+	 * @param files   The files to add.
+	 * @throws IOException On error reading a file or updating the archive.
+	 */
+	private void appendInPlace(FileObject archive, FileObject root, List<FileObject> files) throws IOException {
+		RandomAccessContent content = archive.getContent().getRandomAccessContent(RandomAccessMode.READWRITE);
+		try {
+			ZipCentralDirectory directory = ZipCentralDirectory.read(content);
+			List<String> names = getNewNames(directory, root, files);
+			content.seek(directory.getOffset());
+			try {
+				OutputStream out = new BufferedOutputStream(new RandomAccessOutputStream(content),
+				                                            FileConstants.ARCHIVE_BUFFER_SIZE);
+				long end = writeEntries(directory, names, files, out);
+				out.flush();
+				content.setLength(end);
+			} catch (IOException | RuntimeException e) {
+				// The existing entries are untouched, so putting the old directory back restores the archive
+				content.seek(directory.getOffset());
+				content.write(directory.getDirectory());
+				content.write(directory.getEnd());
+				content.setLength(directory.getOffset() + directory.getDirectory().length + directory.getEnd().length);
+				throw e;
+			}
+		} finally {
+			content.close();
+			archive.close();
+		}
+	}
+
+	/**
+	 * Update a remote archive through a local copy, and replace the archive once the copy is complete. The original
+	 * archive is moved aside while the updated copy is moved into its place, and is restored if that move fails.
+	 *
+	 * @param archive The remote archive.
+	 * @param root    The folder the entry names are relative to.
+	 * @param files   The files to add.
+	 * @throws IOException On error reading a file or updating the archive.
+	 */
+	private void appendThroughCopy(FileObject archive, FileObject root, List<FileObject> files) throws IOException {
+		File localFile = File.createTempFile(FileConstants.SCATTER_PREFIX, FileConstants.ZIP_EXTENSION);
+		FileObject localCopy = null;
+		FileObject staging = null;
+		FileObject backup = null;
+		try {
+			localCopy = archive.getFileSystem().getFileSystemManager().toFileObject(localFile);
+			localCopy.copyFrom(archive, Selectors.SELECT_SELF);
+			appendInPlace(localCopy, root, files);
+			staging = archive.getParent().resolveFile(
+					archive.getName().getBaseName() + FileConstants.APPEND_STAGING_SUFFIX);
+			staging.copyFrom(localCopy, Selectors.SELECT_SELF);
+			backup = archive.getParent().resolveFile(
+					archive.getName().getBaseName() + FileConstants.APPEND_BACKUP_SUFFIX);
+			archive.moveTo(backup);
+			try {
+				staging.moveTo(archive);
+			} catch (FileSystemException e) {
+				// Put the original archive back, the updated copy is left in the staging file
+				try {
+					backup.moveTo(archive);
+				} catch (FileSystemException f) {
+					log.error("Unable to restore the archive " + archive.getName().getFriendlyURI() + " from "
+					          + backup.getName().getFriendlyURI(), f);
+				}
+				throw e;
+			}
+			backup.delete();
+		} finally {
+			if (localCopy != null) {
+				localCopy.close();
+			}
+			if (staging != null) {
+				staging.close();
+			}
+			if (backup != null) {
+				backup.close();
+			}
+			if (!localFile.delete()) {
+				log.warn("Unable to delete the temporary file " + localFile);
+			}
+		}
+	}
+
+	/**
+	 * Get the names of the new entries, checking that none of them is in the archive already.
+	 *
+	 * @param directory The central directory of the archive.
+	 * @param root      The folder the entry names are relative to.
+	 * @param files     The files to add.
+	 * @return The entry names, in the order of the files.
+	 * @throws FileSystemException If a file is not inside the root folder.
+	 */
+	private List<String> getNewNames(ZipCentralDirectory directory, FileObject root, List<FileObject> files)
+			throws FileSystemException {
+		List<String> names = new ArrayList<>();
+		List<String> duplicates = new ArrayList<>();
+		for (FileObject file : files) {
+			String name = ZipArchiveBuilder.getEntryName(root, file);
+			if (directory.getEntry(name) != null) {
+				duplicates.add(name);
+			}
+			names.add(name);
+		}
+		if (!duplicates.isEmpty()) {
+			throw new SynapseException("The archive already contains the entries " + duplicates);
+		}
+		return names;
+	}
+
+	/**
+	 * Write the new entries and the new central directory. The Zip64 end records are written when the number of
+	 * entries, the size or the offset of the directory do not fit into the end record.
+	 *
+	 * @param directory The old central directory.
+	 * @param names     The names of the new entries.
+	 * @param files     The files of the new entries.
+	 * @param out       Stream positioned at the old central directory.
+	 * @return The new length of the archive.
+	 * @throws IOException On error reading a file or writing the archive.
+	 */
+	private long writeEntries(ZipCentralDirectory directory, List<String> names, List<FileObject> files,
+	                          OutputStream out) throws IOException {
+		CountingOutputStream counter = new CountingOutputStream(out);
+		ByteArrayOutputStream records = new ByteArrayOutputStream();
+		for (int i = 0; i < files.size(); i++) {
+			records.write(writeEntry(names.get(i), files.get(i), counter, directory.getOffset()));
+		}
+		long count = directory.getEntries().size() + files.size();
+		long directoryOffset = directory.getOffset() + counter.getByteCount();
+		counter.write(directory.getDirectory());
+		records.writeTo(counter);
+		long directorySize = directory.getDirectory().length + records.size();
+		if (count >= MAX_ENTRIES || directorySize >= ZipCentralDirectory.ZIP64_MAGIC
+		    || directoryOffset >= ZipCentralDirectory.ZIP64_MAGIC) {
+			long zip64EndOffset = directory.getOffset() + counter.getByteCount();
+			ByteBuffer zip64End =
+					allocate(ZipCentralDirectory.ZIP64_EOCD_SIZE + ZipCentralDirectory.ZIP64_LOCATOR_SIZE);
+			zip64End.putInt(ZipCentralDirectory.ZIP64_EOCD_SIG).putLong(ZipCentralDirectory.ZIP64_EOCD_SIZE - 12)
+			        .putShort((short) ZIP64_VERSION).putShort((short) ZIP64_VERSION).putInt(0).putInt(0)
+			        .putLong(count).putLong(count).putLong(directorySize).putLong(directoryOffset);
+			zip64End.putInt(ZipCentralDirectory.ZIP64_LOCATOR_SIG).putInt(0).putLong(zip64EndOffset).putInt(1);
+			counter.write(zip64End.array());
+		}
+		byte[] comment = directory.getComment();
+		ByteBuffer end = allocate(ZipCentralDirectory.EOCD_SIZE + comment.length);
+		end.putInt(ZipCentralDirectory.EOCD_SIG).putShort((short) 0).putShort((short) 0)
+		   .putShort((short) Math.min(count, MAX_ENTRIES)).putShort((short) Math.min(count, MAX_ENTRIES))
+		   .putInt((int) Math.min(directorySize, ZipCentralDirectory.ZIP64_MAGIC))
+		   .putInt((int) Math.min(directoryOffset, ZipCentralDirectory.ZIP64_MAGIC))
+		   .putShort((short) comment.length).put(comment);
+		counter.write(end.array());
+		return directory.getOffset() + counter.getByteCount();
+	}
+
+	/**
+	 * Write a deflated entry with a data descriptor, so the content is read only once. Entries of files that may not
+	 * fit into 4 GB after compression get a Zip64 local header and descriptor.
+	 *
+	 * @param name   The entry name.
+	 * @param file   The file holding the data of the entry.
+	 * @param out    Stream counting the bytes written after the old entries.
+	 * @param offset Offset of the old central directory, where the new entries start.
+	 * @return The central directory record of the entry.
+	 * @throws IOException On error reading the file or writing the archive.
+	 */
+	private byte[] writeEntry(String name, FileObject file, CountingOutputStream out, long offset)
+			throws IOException {
+		long localHeaderOffset = offset + out.getByteCount();
+		long fileSize = file.getContent().getSize();
+		// Deflating never grows the content by more than a few bytes per block
+		boolean zip64 =
+				fileSize + fileSize / 1000 + FileConstants.ARCHIVE_BUFFER_SIZE >= ZipCentralDirectory.ZIP64_MAGIC;
+		byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+		byte[] dosTime = ZipUtil.toDosTime(file.getContent().getLastModifiedTime());
+		ByteBuffer header = allocate(ZipCentralDirectory.LFH_SIZE + nameBytes.length
+		                             + (zip64 ? ZIP64_LOCAL_EXTRA_SIZE : 0));
+		header.putInt((int) ZipLong.LFH_SIG.getValue()).putShort((short) (zip64 ? ZIP64_VERSION : VERSION))
+		      .putShort((short) FLAGS).putShort((short) ZipEntry.DEFLATED).put(dosTime).putInt(0);
+		if (zip64) {
+			header.putInt((int) ZipCentralDirectory.ZIP64_MAGIC).putInt((int) ZipCentralDirectory.ZIP64_MAGIC)
+			      .putShort((short) nameBytes.length).putShort((short) ZIP64_LOCAL_EXTRA_SIZE).put(nameBytes)
+			      .putShort((short) ZipCentralDirectory.ZIP64_EXTRA_ID).putShort((short) 16).putLong(0).putLong(0);
+		} else {
+			header.putInt(0).putInt(0).putShort((short) nameBytes.length).putShort((short) 0).put(nameBytes);
+		}
+		out.write(header.array());
+
+		long dataStart = out.getByteCount();
+		CRC32 crc = new CRC32();
+		long size = 0;
+		Deflater deflater = new Deflater(compressionLevel, true);
+		InputStream in = null;
+		try {
+			in = file.getContent().getInputStream();
+			DeflaterOutputStream deflating = new DeflaterOutputStream(new CloseShieldOutputStream(out), deflater,
+			                                                          FileConstants.BUFFER_SIZE);
+			byte[] buffer = new byte[FileConstants.BUFFER_SIZE];
+			int length;
+			while ((length = in.read(buffer)) != -1) {
+				crc.update(buffer, 0, length);
+				deflating.write(buffer, 0, length);
+				size += length;
+			}
+			deflating.finish();
+		} finally {
+			IOUtils.closeQuietly(in);
+			deflater.end();
+			file.close();
+		}
+		long compressedSize = out.getByteCount() - dataStart;
+		if (!zip64 && Math.max(size, compressedSize) >= ZipCentralDirectory.ZIP64_MAGIC) {
+			throw new ZipException("The entry " + name + " grew beyond 4 GB while it was written");
+		}
+
+		ByteBuffer descriptor = allocate(zip64 ? ZIP64_DD_SIZE : DD_SIZE);
+		descriptor.putInt((int) ZipLong.DD_SIG.getValue()).putInt((int) crc.getValue());
+		if (zip64) {
+			descriptor.putLong(compressedSize).putLong(size);
+		} else {
+			descriptor.putInt((int) compressedSize).putInt((int) size);
+		}
+		out.write(descriptor.array());
+		return createRecord(nameBytes, dosTime, crc.getValue(), compressedSize, size, localHeaderOffset);
+	}
+
+	/**
+	 * Create the central directory record of a new entry. The values that do not fit into the record are written
+	 * to a Zip64 extra field instead.
+	 *
+	 * @param nameBytes         The encoded entry name.
+	 * @param dosTime           The modification time in DOS format.
+	 * @param crc               CRC of the entry content.
+	 * @param compressedSize    Size of the deflated content.
+	 * @param size              Size of the content.
+	 * @param localHeaderOffset Offset of the local header of the entry.
+	 * @return The record.
+	 */
+	private static byte[] createRecord(byte[] nameBytes, byte[] dosTime, long crc, long compressedSize, long size,
+	                                   long localHeaderOffset) {
+		ByteBuffer extra = allocate(ZIP64_LOCAL_EXTRA_SIZE + 8);
+		extra.putShort((short) ZipCentralDirectory.ZIP64_EXTRA_ID).putShort((short) 0);
+		if (size >= ZipCentralDirectory.ZIP64_MAGIC) {
+			extra.putLong(size);
+		}
+		if (compressedSize >= ZipCentralDirectory.ZIP64_MAGIC) {
+			extra.putLong(compressedSize);
+		}
+		if (localHeaderOffset >= ZipCentralDirectory.ZIP64_MAGIC) {
+			extra.putLong(localHeaderOffset);
+		}
+		int extraLength = extra.position() > 4 ? extra.position() : 0;
+		extra.putShort(2, (short) (extraLength - 4));
+		int version = extraLength > 0 ? ZIP64_VERSION : VERSION;
+		ByteBuffer record = allocate(ZipCentralDirectory.CFH_SIZE + nameBytes.length + extraLength);
+		record.putInt((int) ZipLong.CFH_SIG.getValue()).putShort((short) version).putShort((short) version)
+		      .putShort((short) FLAGS).putShort((short) ZipEntry.DEFLATED).put(dosTime).putInt((int) crc)
+		      .putInt((int) Math.min(compressedSize, ZipCentralDirectory.ZIP64_MAGIC))
+		      .putInt((int) Math.min(size, ZipCentralDirectory.ZIP64_MAGIC)).putShort((short) nameBytes.length)
+		      .putShort((short) extraLength).putShort((short) 0).putShort((short) 0).putShort((short) 0).putInt(0)
+		      .putInt((int) Math.min(localHeaderOffset, ZipCentralDirectory.ZIP64_MAGIC)).put(nameBytes)
+		      .put(extra.array(), 0, extraLength);
+		return record.array();
+	}
+
+	private static ByteBuffer allocate(int size) {
+		return ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	/**
+	 * Output stream writing to random access content at its current position.
+	 */
+	private static class RandomAccessOutputStream extends OutputStream {
+		private final RandomAccessContent content;
+
+		RandomAccessOutputStream(RandomAccessContent content) {
+			this.content = content;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			content.write(b);
+		}
+
+		@Override
+		public void write(byte[] bytes, int offset, int length) throws IOException {
+			content.write(bytes, offset, length);
+		}
+	}
+}
\ No newline at end of file
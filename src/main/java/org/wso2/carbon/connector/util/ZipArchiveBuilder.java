@@ -0,0 +1,509 @@
+/*
+* Copyright (c) 2017, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+*
+* WSO2 Inc. licenses this file to you under the Apache License,
+* Version 2.0 (the "License"); you may not use this file except
+* in compliance with the License.
+* You may obtain a copy of the License at
+*
+*http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package org.wso2.carbon.connector.util;
+
+import org.apache.commons.compress.archivers.zip.ScatterZipOutputStream;
+import org.apache.commons.compress.archivers.zip.StreamCompressor;
+import org.apache.commons.compress.archivers.zip.Zip64Mode;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntryRequest;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.apache.commons.compress.parallel.InputStreamSupplier;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.commons.vfs2.FileObject;
+import org.apache.commons.vfs2.FileSystemException;
+import org.apache.commons.vfs2.FileSystemOptions;
+import org.apache.commons.vfs2.impl.StandardFileSystemManager;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.SequenceInputStream;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Locale;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+
+/**
+ * Writes files into a zip archive. In parallel mode the entries are deflated concurrently by a pool of workers, each
+ * into its own scatter buffer, and the compressed entries are then copied into the archive in the original order.
+ * The number of entries compressed ahead of the writer is bounded, so memory and temporary disk use stay bounded too.
+ * When the entries are written serially, the next files can be read ahead instead, so the writer does not wait for
+ * every remote file to be opened. Entries that are already compressed are stored instead of deflated.
+ */
+public class ZipArchiveBuilder {
+	private static final Log log = LogFactory.getLog(ZipArchiveBuilder.class);
+	private final FileSystemOptions opts;
+	private final int parallelism;
+	private final int compressionLevel;
+	private int prefetchCount;
+	private int prefetchBufferSize = FileConstants.DEFAULT_PREFETCH_BUFFER_SIZE;
+	private Set<String> storeExtensions = Collections.emptySet();
+	private boolean detectIncompressible;
+	private final ThreadLocal<StandardFileSystemManager> workerManagers = new ThreadLocal<>();
+	private final Queue<StandardFileSystemManager> openManagers = new ConcurrentLinkedQueue<>();
+
+	/**
+	 * @param opts             Configured file system options, used by the workers to open remote sources.
+	 * @param parallelism      Number of entries deflated at the same time, 1 to write the entries serially.
+	 * @param compressionLevel Deflate level from 0 to 9, or -1 for the default level.
+	 */
+	public ZipArchiveBuilder(FileSystemOptions opts, int parallelism, int compressionLevel) {
+		this.opts = opts;
+		this.parallelism = Math.max(1, parallelism);
+		this.compressionLevel = compressionLevel;
+	}
+
+	/**
+	 * Read the next files ahead while the current entry is written, when the entries are written serially. Each
+	 * prefetched file is opened and read into a bounded buffer by a worker, and the rest of a larger file is streamed
+	 * when its entry is written.
+	 *
+	 * @param count      Number of prefetched files held at a time, including the one being written, 0 to read each
+	 *                   file only when its entry is written.
+	 * @param bufferSize Maximum number of bytes buffered for each prefetched file.
+	 */
+	public void setPrefetch(int count, int bufferSize) {
+		this.prefetchCount = count;
+		this.prefetchBufferSize = bufferSize;
+	}
+
+	/**
+	 * Get the deflate level of the entries.
+	 *
+	 * @return The level from 0 to 9, or -1 for the default level.
+	 */
+	public int getCompressionLevel() {
+		return compressionLevel;
+	}
+
+	/**
+	 * Select the entries that are written without compression, because they are already compressed.
+	 *
+	 * @param extensions Lower case extensions of the files that are always stored.
+	 * @param detect     Whether to also store the files whose beginning does not compress well.
+	 */
+	public void setStorePolicy(Set<String> extensions, boolean detect) {
+		this.storeExtensions = extensions;
+		this.detectIncompressible = detect;
+	}
+
+	/**
+	 * Add the files to the archive. Entry names are the paths of the files relative to the root folder.
+	 *
+	 * @param root  The folder the entry names are relative to.
+	 * @param files The files to add.
+	 * @param zos   The archive to write to.
+	 * @throws IOException On error reading a file or writing the archive.
+	 */
+	public void write(FileObject root, List<FileObject> files, ZipArchiveOutputStream zos) throws IOException {
+		zos.setLevel(compressionLevel);
+		zos.setUseZip64(Zip64Mode.AsNeeded);
+		if (parallelism > 1) {
+			writeParallel(root, files, zos);
+		} else if (prefetchCount > 0) {
+			writePrefetched(root, files, zos);
+		} else {
+			for (FileObject file : files) {
+				writeEntry(root, file, file.getContent().getInputStream(), zos);
+			}
+		}
+		if (log.isDebugEnabled()) {
+			log.debug("Added " + files.size() + " entries to the archive using " + parallelism + " workers.");
+		}
+	}
+
+	/**
+	 * Get the name of the entry of the file.
+	 *
+	 * @param root The folder the entry name is relative to.
+	 * @param file The file.
+	 * @return The entry name.
+	 * @throws FileSystemException If the file is not inside the root folder.
+	 */
+	public static String getEntryName(FileObject root, FileObject file) throws FileSystemException {
+		return root.getName().getRelativeName(file.getName());
+	}
+
+	private ZipArchiveEntry createEntry(FileObject root, FileObject file) throws FileSystemException {
+		ZipArchiveEntry entry = new ZipArchiveEntry(getEntryName(root, file));
+		entry.setTime(file.getContent().getLastModifiedTime());
+		// With the size known up front, the local header of an entry over 4 GB gets its Zip64 field
+		entry.setSize(file.getContent().getSize());
+		return entry;
+	}
+
+	/**
+	 * Write a single entry in the calling thread.
+	 *
+	 * @param root The folder the entry name is relative to.
+	 * @param file The file to add.
+	 * @param in   Stream of the file content, closed once the entry is written.
+	 * @param zos  The archive to write to.
+	 * @throws IOException On error reading the file or writing the archive.
+	 */
+	private void writeEntry(FileObject root, FileObject file, InputStream in, ZipArchiveOutputStream zos)
+			throws IOException {
+		try {
+			ZipArchiveEntry entry = createEntry(root, file);
+			in = selectMethod(entry, file, in);
+			if (entry.getMethod() == ZipEntry.STORED) {
+				writeStored(entry, file, in, zos);
+			} else {
+				zos.putArchiveEntry(entry);
+				IOUtils.copy(in, zos);
+				zos.closeArchiveEntry();
+			}
+		} finally {
+			IOUtils.closeQuietly(in);
+			file.close();
+		}
+	}
+
+	/**
+	 * Choose whether the entry is deflated or stored. The beginning of the content is sampled when incompressible
+	 * entries are detected.
+	 *
+	 * @param entry The entry to set the method of.
+	 * @param file  The file holding the data of the entry.
+	 * @param in    Stream of the file content.
+	 * @return Stream of the whole file content, including any sampled bytes.
+	 * @throws IOException On error reading the sample.
+	 */
+	private InputStream selectMethod(ZipArchiveEntry entry, FileObject file, InputStream in) throws IOException {
+		if (storeExtensions.contains(file.getName().getExtension().toLowerCase(Locale.ENGLISH))) {
+			entry.setMethod(ZipEntry.STORED);
+			return in;
+		}
+		entry.setMethod(ZipEntry.DEFLATED);
+		if (!detectIncompressible || compressionLevel == Deflater.NO_COMPRESSION) {
+			return in;
+		}
+		byte[] sample = new byte[FileConstants.COMPRESSION_SAMPLE_SIZE];
+		int length = IOUtils.read(in, sample);
+		if (length > 0 && !isCompressible(sample, length)) {
+			entry.setMethod(ZipEntry.STORED);
+			if (log.isDebugEnabled()) {
+				log.debug("Storing the incompressible entry " + entry.getName());
+			}
+		}
+		return new SequenceInputStream(new ByteArrayInputStream(sample, 0, length), in);
+	}
+
+	/**
+	 * Check whether the sample shrinks enough when deflated at the fastest level.
+	 *
+	 * @param sample The sampled bytes.
+	 * @param length Number of sampled bytes.
+	 * @return true, if the entry is worth deflating.
+	 */
+	private static boolean isCompressible(byte[] sample, int length) {
+		Deflater deflater = new Deflater(Deflater.BEST_SPEED, true);
+		try {
+			deflater.setInput(sample, 0, length);
+			deflater.finish();
+			byte[] buffer = new byte[FileConstants.BUFFER_SIZE];
+			while (!deflater.finished()) {
+				deflater.deflate(buffer);
+			}
+			return deflater.getBytesWritten() < length * FileConstants.INCOMPRESSIBLE_RATIO;
+		} finally {
+			deflater.end();
+		}
+	}
+
+	/**
+	 * Write a stored entry. Its size and CRC have to be known before the entry is written, so a local file is read
+	 * twice, while a remote file is buffered, spilling to a temporary file when it is large.
+	 *
+	 * @param entry The stored entry.
+	 * @param file  The file holding the data of the entry.
+	 * @param in    Stream of the file content.
+	 * @param zos   The archive to write to.
+	 * @throws IOException On error reading the file or writing the archive.
+	 */
+	private void writeStored(ZipArchiveEntry entry, FileObject file, InputStream in, ZipArchiveOutputStream zos)
+			throws IOException {
+		CRC32 crc = new CRC32();
+		SpillingBackingStore store = null;
+		InputStream content = null;
+		try {
+			if (!FileConnectorUtils.isLocal(file)) {
+				store = new SpillingBackingStore(FileConstants.SCATTER_SPILL_THRESHOLD);
+			}
+			byte[] buffer = new byte[FileConstants.BUFFER_SIZE];
+			long size = 0;
+			int length;
+			while ((length = in.read(buffer)) != -1) {
+				crc.update(buffer, 0, length);
+				if (store != null) {
+					store.writeOut(buffer, 0, length);
+				}
+				size += length;
+			}
+			entry.setSize(size);
+			entry.setCompressedSize(size);
+			entry.setCrc(crc.getValue());
+			if (store != null) {
+				store.closeForWriting();
+				content = store.getInputStream();
+			} else {
+				content = file.getContent().getInputStream();
+			}
+			zos.putArchiveEntry(entry);
+			IOUtils.copy(content, zos);
+			zos.closeArchiveEntry();
+		} finally {
+			IOUtils.closeQuietly(content);
+			if (store != null) {
+				store.close();
+			}
+		}
+	}
+
+	/**
+	 * Write the entries serially while a pool of workers reads the next files ahead.
+	 *
+	 * @param root  The folder the entry names are relative to.
+	 * @param files The files to add.
+	 * @param zos   The archive to write to.
+	 * @throws IOException On error reading a file or writing the archive.
+	 */
+	private void writePrefetched(FileObject root, List<FileObject> files, ZipArchiveOutputStream zos)
+			throws IOException {
+		ExecutorService workers = Executors.newFixedThreadPool(prefetchCount);
+		Deque<Future<InputStream>> window = new ArrayDeque<>();
+		try {
+			int next = 0;
+			for (FileObject file : files) {
+				while (next < files.size() && window.size() < prefetchCount) {
+					window.add(workers.submit(prefetch(files.get(next++))));
+				}
+				writeEntry(root, file, getResult(window.poll()), zos);
+			}
+		} finally {
+			workers.shutdownNow();
+			// Close the streams that were read ahead but not written because of a failure
+			discard(window);
+			closeWorkerManagers();
+			for (FileObject file : files) {
+				file.close();
+			}
+		}
+	}
+
+	/**
+	 * Create the task that opens a file and reads its beginning into a buffer.
+	 *
+	 * @param file The file to read ahead.
+	 * @return The task, returning a stream of the buffered bytes followed by the rest of the file.
+	 */
+	private Callable<InputStream> prefetch(final FileObject file) {
+		return new Callable<InputStream>() {
+			@Override
+			public InputStream call() throws IOException {
+				InputStream in = openInWorker(file);
+				try {
+					byte[] buffer = new byte[prefetchBufferSize];
+					int length = IOUtils.read(in, buffer);
+					InputStream buffered = new ByteArrayInputStream(buffer, 0, length);
+					if (length < buffer.length) {
+						in.close();
+						return buffered;
+					}
+					return new SequenceInputStream(buffered, in);
+				} catch (IOException | RuntimeException e) {
+					IOUtils.closeQuietly(in);
+					throw e;
+				}
+			}
+		};
+	}
+
+	/**
+	 * Deflate the entries on the worker pool and write them in order as soon as they are ready.
+	 *
+	 * @param root  The folder the entry names are relative to.
+	 * @param files The files to add.
+	 * @param zos   The archive to write to.
+	 * @throws IOException On error reading a file or writing the archive.
+	 */
+	private void writeParallel(FileObject root, List<FileObject> files, ZipArchiveOutputStream zos)
+			throws IOException {
+		ExecutorService workers = Executors.newFixedThreadPool(parallelism);
+		Deque<Future<ScatterZipOutputStream>> window = new ArrayDeque<>();
+		try {
+			for (FileObject file : files) {
+				window.add(workers.submit(deflate(createEntry(root, file), file)));
+				if (window.size() >= parallelism * FileConstants.SCATTER_WINDOW_FACTOR) {
+					writeDeflated(window.poll(), zos);
+				}
+			}
+			while (!window.isEmpty()) {
+				writeDeflated(window.poll(), zos);
+			}
+		} finally {
+			workers.shutdownNow();
+			// Release the buffers of the entries that were not written because of a failure
+			discard(window);
+			closeWorkerManagers();
+			for (FileObject file : files) {
+				file.close();
+			}
+		}
+	}
+
+	/**
+	 * Create the task that compresses a single entry into its own scatter buffer.
+	 *
+	 * @param entry The entry, without the compressed data.
+	 * @param file  The file holding the data of the entry.
+	 * @return The task.
+	 */
+	private Callable<ScatterZipOutputStream> deflate(final ZipArchiveEntry entry, final FileObject file) {
+		return new Callable<ScatterZipOutputStream>() {
+			@Override
+			public ScatterZipOutputStream call() throws IOException {
+				SpillingBackingStore store = new SpillingBackingStore(FileConstants.SCATTER_SPILL_THRESHOLD);
+				ScatterZipOutputStream scatter =
+						new ScatterZipOutputStream(store, StreamCompressor.create(compressionLevel, store));
+				InputStream opened = null;
+				try {
+					opened = openInWorker(file);
+					final InputStream in = selectMethod(entry, file, opened);
+					// The request closes the stream once the entry has been compressed
+					scatter.addArchiveEntry(
+							ZipArchiveEntryRequest.createZipArchiveEntryRequest(entry, new InputStreamSupplier() {
+								@Override
+								public InputStream get() {
+									return in;
+								}
+							}));
+					return scatter;
+				} catch (IOException | RuntimeException e) {
+					IOUtils.closeQuietly(opened);
+					scatter.close();
+					throw e;
+				}
+			}
+		};
+	}
+
+	/**
+	 * Wait for a deflated entry and copy it into the archive without compressing it again.
+	 *
+	 * @param future The deflated entry.
+	 * @param zos    The archive to write to.
+	 * @throws IOException On error deflating the entry or writing the archive.
+	 */
+	private void writeDeflated(Future<ScatterZipOutputStream> future, ZipArchiveOutputStream zos) throws IOException {
+		ScatterZipOutputStream scatter = getResult(future);
+		try {
+			scatter.writeTo(zos);
+		} finally {
+			scatter.close();
+		}
+	}
+
+	/**
+	 * Wait for the result of a worker.
+	 *
+	 * @param future The result of the worker.
+	 * @return The result.
+	 * @throws IOException On error in the worker, or if interrupted while waiting.
+	 */
+	private static <T> T getResult(Future<T> future) throws IOException {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for a worker");
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new IOException("Error while reading an entry", e.getCause());
+		}
+	}
+
+	/**
+	 * Release the results of the workers that were not written because of a failure. The pool is already shut down
+	 * and drops the tasks it has not started, so only the finished results are waited for and the others are
+	 * cancelled.
+	 *
+	 * @param window The results that were not written.
+	 */
+	private static void discard(Deque<? extends Future<? extends Closeable>> window) {
+		for (Future<? extends Closeable> future : window) {
+			if (future.cancel(true)) {
+				continue;
+			}
+			try {
+				IOUtils.closeQuietly(future.get());
+			} catch (InterruptedException | ExecutionException | CancellationException e) {
+				log.debug("Discarding the result of a worker", e);
+			}
+		}
+		window.clear();
+	}
+
+	/**
+	 * Open the file from a worker thread. Remote files are opened through a file system manager owned by the
+	 * worker, so every worker uses its own session.
+	 *
+	 * @param file The file to open.
+	 * @return Stream of the file content.
+	 * @throws IOException On error opening the file.
+	 */
+	private InputStream openInWorker(FileObject file) throws IOException {
+		if (FileConnectorUtils.isLocal(file)) {
+			return file.getContent().getInputStream();
+		}
+		StandardFileSystemManager manager = workerManagers.get();
+		if (manager == null) {
+			manager = FileConnectorUtils.getManager();
+			workerManagers.set(manager);
+			openManagers.add(manager);
+		}
+		return manager.resolveFile(file.getName().getURI(), opts).getContent().getInputStream();
+	}
+
+	private void closeWorkerManagers() {
+		StandardFileSystemManager manager;
+		while ((manager = openManagers.poll()) != null) {
+			manager.close();
+		}
+	}
+}
\ No newline at end of file
@@ -0,0 +1,375 @@
+/*
+* Copyright (c) 2017, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+*
+* WSO2 Inc. licenses this file to you under the Apache License,
+* Version 2.0 (the "License"); you may not use this file except
+* in compliance with the License.
+* You may obtain a copy of the License at
+*
+*http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package org.wso2.carbon.connector.util;
+
+import org.apache.commons.compress.archivers.zip.ZipLong;
+import org.apache.commons.compress.archivers.zip.ZipUtil;
+import org.apache.commons.compress.utils.ChecksumVerifyingInputStream;
+import org.apache.commons.io.input.BoundedInputStream;
+import org.apache.commons.vfs2.RandomAccessContent;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+/**
+ * The central directory of a zip archive, read through random access from the end of the archive. Only the directory
+ * is read, so an entry can be listed or located without reading the entries before it.
+ */
+public class ZipCentralDirectory {
+	static final int EOCD_SIG = 0x06054b50;
+	static final int EOCD_SIZE = 22;
+	static final int CFH_SIZE = 46;
+	static final int LFH_SIZE = 30;
+	static final int MAX_COMMENT_SIZE = 0xFFFF;
+	static final int UTF8_FLAG = 1 << 11;
+	static final int ZIP64_EOCD_SIG = 0x06064b50;
+	static final int ZIP64_EOCD_SIZE = 56;
+	static final int ZIP64_LOCATOR_SIG = 0x07064b50;
+	static final int ZIP64_LOCATOR_SIZE = 20;
+	static final int ZIP64_EXTRA_ID = 0x0001;
+	static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+	private final Map<String, Entry> entries;
+	private final long offset;
+	private final byte[] directory;
+	private final byte[] end;
+	private final int commentLength;
+
+	private ZipCentralDirectory(Map<String, Entry> entries, long offset, byte[] directory, byte[] end,
+	                            int commentLength) {
+		this.entries = entries;
+		this.offset = offset;
+		this.directory = directory;
+		this.end = end;
+		this.commentLength = commentLength;
+	}
+
+	/**
+	 * Read the central directory of an archive. The Zip64 end record is used when the archive has one.
+	 *
+	 * @param content Random access to the archive.
+	 * @return The central directory.
+	 * @throws IOException On error reading the archive, or if it is not a zip archive.
+	 */
+	public static ZipCentralDirectory read(RandomAccessContent content) throws IOException {
+		long length = content.length();
+		byte[] tail = new byte[(int) Math.min(length, EOCD_SIZE + MAX_COMMENT_SIZE)];
+		content.seek(length - tail.length);
+		content.readFully(tail);
+		int position = findEndRecord(tail);
+		long endPosition = length - tail.length + position;
+		ByteBuffer record = ByteBuffer.wrap(tail).order(ByteOrder.LITTLE_ENDIAN);
+		long count = record.getShort(position + 10) & 0xFFFF;
+		long size = record.getInt(position + 12) & 0xFFFFFFFFL;
+		long offset = record.getInt(position + 16) & 0xFFFFFFFFL;
+		int commentLength = record.getShort(position + 20) & 0xFFFF;
+		if (endPosition >= ZIP64_LOCATOR_SIZE) {
+			ByteBuffer locator = readRecord(content, endPosition - ZIP64_LOCATOR_SIZE, ZIP64_LOCATOR_SIZE);
+			if (locator.getInt(0) == ZIP64_LOCATOR_SIG) {
+				ByteBuffer zip64End = readRecord(content, locator.getLong(8), ZIP64_EOCD_SIZE);
+				if (zip64End.getInt(0) != ZIP64_EOCD_SIG) {
+					throw new ZipException("Invalid Zip64 end of central directory record");
+				}
+				count = zip64End.getLong(32);
+				size = zip64End.getLong(40);
+				offset = zip64End.getLong(48);
+			}
+		}
+		if (offset < 0 || size < 0 || offset + size > endPosition || size > Integer.MAX_VALUE) {
+			throw new ZipException("The central directory is outside of the archive");
+		}
+		byte[] directory = new byte[(int) size];
+		content.seek(offset);
+		content.readFully(directory);
+		// Everything after the directory, the end records and the archive comment
+		byte[] end = new byte[(int) (length - offset - size)];
+		content.readFully(end);
+		return new ZipCentralDirectory(parse(directory, count), offset, directory, end, commentLength);
+	}
+
+	private static ByteBuffer readRecord(RandomAccessContent content, long position, int size) throws IOException {
+		byte[] bytes = new byte[size];
+		content.seek(position);
+		content.readFully(bytes);
+		return ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	/**
+	 * Find the end of central directory record, searching backwards since the archive comment may follow it.
+	 *
+	 * @param tail The last bytes of the archive.
+	 * @return Position of the record in the bytes.
+	 * @throws ZipException If the archive has no end of central directory record.
+	 */
+	private static int findEndRecord(byte[] tail) throws ZipException {
+		ByteBuffer buffer = ByteBuffer.wrap(tail).order(ByteOrder.LITTLE_ENDIAN);
+		for (int i = tail.length - EOCD_SIZE; i >= 0; i--) {
+			int commentLength = buffer.getShort(i + 20) & 0xFFFF;
+			if (buffer.getInt(i) == EOCD_SIG && i + EOCD_SIZE + commentLength == tail.length) {
+				return i;
+			}
+		}
+		throw new ZipException("Not a zip archive, the end of central directory record is missing");
+	}
+
+	private static Map<String, Entry> parse(byte[] directory, long count) throws ZipException {
+		Map<String, Entry> entries = new LinkedHashMap<>((int) Math.min(count * 2, Integer.MAX_VALUE));
+		ByteBuffer buffer = ByteBuffer.wrap(directory).order(ByteOrder.LITTLE_ENDIAN);
+		long signature = ZipLong.CFH_SIG.getValue();
+		while (buffer.remaining() >= CFH_SIZE) {
+			int start = buffer.position();
+			if ((buffer.getInt() & 0xFFFFFFFFL) != signature) {
+				throw new ZipException("Invalid central directory record at " + start);
+			}
+			buffer.position(start + 10);
+			int method = buffer.getShort() & 0xFFFF;
+			long dosTime = buffer.getInt() & 0xFFFFFFFFL;
+			long crc = buffer.getInt() & 0xFFFFFFFFL;
+			long compressedSize = buffer.getInt() & 0xFFFFFFFFL;
+			long size = buffer.getInt() & 0xFFFFFFFFL;
+			int nameLength = buffer.getShort() & 0xFFFF;
+			int extraLength = buffer.getShort() & 0xFFFF;
+			int commentLength = buffer.getShort() & 0xFFFF;
+			buffer.position(start + 42);
+			long localHeaderOffset = buffer.getInt() & 0xFFFFFFFFL;
+			byte[] name = new byte[nameLength];
+			buffer.get(name);
+			int extraEnd = buffer.position() + extraLength;
+			while (buffer.position() + 4 <= extraEnd) {
+				int id = buffer.getShort() & 0xFFFF;
+				int dataEnd = buffer.position() + 2 + (buffer.getShort() & 0xFFFF);
+				if (id == ZIP64_EXTRA_ID) {
+					// Only the values that do not fit into the record are in the Zip64 field, in this order
+					if (size == ZIP64_MAGIC) {
+						size = buffer.getLong();
+					}
+					if (compressedSize == ZIP64_MAGIC) {
+						compressedSize = buffer.getLong();
+					}
+					if (localHeaderOffset == ZIP64_MAGIC) {
+						localHeaderOffset = buffer.getLong();
+					}
+				}
+				buffer.position(dataEnd);
+			}
+			buffer.position(extraEnd + commentLength);
+			// Names are decoded as UTF-8 whether flagged or not, like the streaming reader does
+			Entry entry = new Entry(new String(name, StandardCharsets.UTF_8), method, dosTime, crc, compressedSize,
+			                        size, localHeaderOffset);
+			entries.put(entry.getName(), entry);
+		}
+		return entries;
+	}
+
+	/**
+	 * Open the content of an entry. Only the local header and the data of the entry are read, so the other entries
+	 * of the archive are neither downloaded nor inflated. The CRC is verified once the content has been read.
+	 *
+	 * @param content Random access to the archive. It must stay open, and not be used elsewhere, until the returned
+	 *                stream is closed.
+	 * @param entry   The entry to read.
+	 * @return Stream of the uncompressed content.
+	 * @throws IOException On error reading the local header, or if the compression method is not supported.
+	 */
+	public static InputStream openEntry(RandomAccessContent content, Entry entry) throws IOException {
+		return openEntry(openCompressed(content, entry), entry);
+	}
+
+	/**
+	 * Open the compressed data of an entry, as it is stored in the archive.
+	 *
+	 * @param content Random access to the archive. It must stay open, and not be used elsewhere, until the returned
+	 *                stream is closed.
+	 * @param entry   The entry to read.
+	 * @return Stream of the compressed data, ending after the compressed size of the entry. Closing it leaves the
+	 * random access content open.
+	 * @throws IOException On error reading the local header.
+	 */
+	public static InputStream openCompressed(RandomAccessContent content, Entry entry) throws IOException {
+		ByteBuffer header = readRecord(content, entry.getLocalHeaderOffset(), LFH_SIZE);
+		if ((header.getInt(0) & 0xFFFFFFFFL) != ZipLong.LFH_SIG.getValue()) {
+			throw new ZipException("Invalid local file header for " + entry.getName());
+		}
+		// The local extra field may differ from the one in the central directory
+		content.seek(entry.getLocalHeaderOffset() + LFH_SIZE + (header.getShort(26) & 0xFFFF)
+		             + (header.getShort(28) & 0xFFFF));
+		BoundedInputStream raw = new BoundedInputStream(content.getInputStream(), entry.getCompressedSize());
+		raw.setPropagateClose(false);
+		return raw;
+	}
+
+	/**
+	 * Uncompress the data of an entry. The CRC is verified once the content has been read.
+	 *
+	 * @param compressed Stream of the compressed data, as returned by
+	 *                   {@link #openCompressed(RandomAccessContent, Entry)}.
+	 * @param entry      The entry to read.
+	 * @return Stream of the uncompressed content.
+	 * @throws IOException If the compression method is not supported.
+	 */
+	public static InputStream openEntry(InputStream compressed, Entry entry) throws IOException {
+		InputStream data = new BufferedInputStream(compressed, FileConstants.ARCHIVE_BUFFER_SIZE);
+		switch (entry.getMethod()) {
+			case ZipEntry.STORED:
+				break;
+			case ZipEntry.DEFLATED:
+				final Inflater inflater = new Inflater(true);
+				data = new InflaterInputStream(data, inflater, FileConstants.BUFFER_SIZE) {
+					@Override
+					public void close() throws IOException {
+						try {
+							super.close();
+						} finally {
+							inflater.end();
+						}
+					}
+				};
+				break;
+			default:
+				throw new ZipException("Unsupported compression method " + entry.getMethod() + " for " +
+				                       entry.getName());
+		}
+		return new ChecksumVerifyingInputStream(new CRC32(), data, entry.getSize(), entry.getCrc());
+	}
+
+	/**
+	 * Get the entries, in the order of the central directory.
+	 *
+	 * @return The entries.
+	 */
+	public List<Entry> getEntries() {
+		return Collections.unmodifiableList(new ArrayList<>(entries.values()));
+	}
+
+	/**
+	 * Get an entry by name.
+	 *
+	 * @param name The entry name.
+	 * @return The entry, or null if the archive has no entry with the name.
+	 */
+	public Entry getEntry(String name) {
+		return entries.get(name);
+	}
+
+	/**
+	 * Get the position of the central directory, which is where the data of the last entry ends.
+	 *
+	 * @return Offset of the central directory in the archive.
+	 */
+	public long getOffset() {
+		return offset;
+	}
+
+	/**
+	 * Get the central directory records as they are stored in the archive.
+	 *
+	 * @return The records.
+	 */
+	byte[] getDirectory() {
+		return directory;
+	}
+
+	/**
+	 * Get the end records as they are stored in the archive, including the archive comment.
+	 *
+	 * @return The record.
+	 */
+	byte[] getEnd() {
+		return end;
+	}
+
+	/**
+	 * Get the archive comment.
+	 *
+	 * @return The raw comment bytes.
+	 */
+	byte[] getComment() {
+		byte[] comment = new byte[commentLength];
+		System.arraycopy(end, end.length - commentLength, comment, 0, commentLength);
+		return comment;
+	}
+
+	/**
+	 * An entry of the central directory.
+	 */
+	public static class Entry {
+		private final String name;
+		private final int method;
+		private final long dosTime;
+		private final long crc;
+		private final long compressedSize;
+		private final long size;
+		private final long localHeaderOffset;
+
+		Entry(String name, int method, long dosTime, long crc, long compressedSize, long size,
+		      long localHeaderOffset) {
+			this.name = name;
+			this.method = method;
+			this.dosTime = dosTime;
+			this.crc = crc;
+			this.compressedSize = compressedSize;
+			this.size = size;
+			this.localHeaderOffset = localHeaderOffset;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public int getMethod() {
+			return method;
+		}
+
+		public long getTime() {
+			return ZipUtil.dosToJavaTime(dosTime);
+		}
+
+		public long getCrc() {
+			return crc;
+		}
+
+		public long getCompressedSize() {
+			return compressedSize;
+		}
+
+		public long getSize() {
+			return size;
+		}
+
+		public long getLocalHeaderOffset() {
+			return localHeaderOffset;
+		}
+
+		public boolean isDirectory() {
+			return name.endsWith("/");
+		}
+	}
+}
\ No newline at end of file
@@ -0,0 +1,150 @@
+/*
+* Copyright (c) 2017, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+*
+* WSO2 Inc. licenses this file to you under the Apache License,
+* Version 2.0 (the "License"); you may not use this file except
+* in compliance with the License.
+* You may obtain a copy of the License at
+*
+*http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package org.wso2.carbon.connector.util;
+
+import org.apache.axiom.attachments.SizeAwareDataSource;
+import org.apache.commons.compress.archivers.ArchiveEntry;
+import org.apache.commons.compress.archivers.ArchiveInputStream;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.ProxyInputStream;
+import org.apache.commons.vfs2.Capability;
+import org.apache.commons.vfs2.FileObject;
+import org.apache.commons.vfs2.RandomAccessContent;
+import org.apache.commons.vfs2.util.RandomAccessMode;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Data source that reads a single entry of a zip archive, inflating it on the fly. When the archive supports random
+ * access the entry is located through the central directory and only its own data is read, otherwise the archive is
+ * streamed up to the entry. Nothing is extracted to a temporary file.
+ */
+public class ZipEntryDataSource implements SizeAwareDataSource {
+	private final FileObject archive;
+	private final String entryName;
+	private final String contentType;
+	private final ZipCentralDirectory.Entry entry;
+
+	/**
+	 * @param archive     The zip archive.
+	 * @param entryName   Name of the entry to read.
+	 * @param contentType Content type of the entry.
+	 * @throws IOException On error reading the central directory, or if the archive has no entry with the name.
+	 */
+	public ZipEntryDataSource(FileObject archive, String entryName, String contentType) throws IOException {
+		this.archive = archive;
+		this.entryName = entryName;
+		this.contentType = contentType;
+		if (archive.getFileSystem().hasCapability(Capability.RANDOM_ACCESS_READ)) {
+			RandomAccessContent content = archive.getContent().getRandomAccessContent(RandomAccessMode.READ);
+			try {
+				entry = ZipCentralDirectory.read(content).getEntry(entryName);
+			} finally {
+				content.close();
+			}
+			if (entry == null) {
+				throw new FileNotFoundException("The zip archive has no entry named " + entryName);
+			}
+		} else {
+			entry = null;
+		}
+	}
+
+	/**
+	 * Get the uncompressed size of the entry.
+	 *
+	 * @return Size of the entry, or -1 if the archive is streamed.
+	 */
+	public long getSize() {
+		return entry != null ? entry.getSize() : -1;
+	}
+
+	/**
+	 * Get the content type.
+	 *
+	 * @return Content type.
+	 */
+	public String getContentType() {
+		return contentType;
+	}
+
+	/**
+	 * Get the name of the entry, qualified with the archive.
+	 *
+	 * @return The name of the entry
+	 */
+	public String getName() {
+		return archive.getName().getURI() + "!/" + entryName;
+	}
+
+	/**
+	 * Get the input stream. Closing it releases the archive.
+	 *
+	 * @return Stream of the uncompressed entry content.
+	 * @throws IOException On error reading the archive, or if the archive has no entry with the name.
+	 */
+	public InputStream getInputStream() throws IOException {
+		if (entry != null) {
+			final RandomAccessContent content = archive.getContent().getRandomAccessContent(RandomAccessMode.READ);
+			try {
+				return new ProxyInputStream(ZipCentralDirectory.openEntry(content, entry)) {
+					@Override
+					public void close() throws IOException {
+						try {
+							super.close();
+						} finally {
+							content.close();
+						}
+					}
+				};
+			} catch (IOException | RuntimeException e) {
+				content.close();
+				throw e;
+			}
+		}
+		ArchiveInputStream zipIn =
+				ArchiveStreams.openInput(archive.getContent().getInputStream(), FileConstants.FORMAT_ZIP);
+		try {
+			ArchiveEntry archiveEntry;
+			while ((archiveEntry = zipIn.getNextEntry()) != null) {
+				if (entryName.equals(archiveEntry.getName())) {
+					// The archive stream ends where the entry ends
+					return zipIn;
+				}
+			}
+		} catch (IOException | RuntimeException e) {
+			IOUtils.closeQuietly(zipIn);
+			throw e;
+		}
+		IOUtils.closeQuietly(zipIn);
+		throw new FileNotFoundException("The zip archive has no entry named " + entryName);
+	}
+
+	/**
+	 * Entries can not be written.
+	 *
+	 * @return Never returns.
+	 * @throws IOException Always.
+	 */
+	public OutputStream getOutputStream() throws IOException {
+		throw new IOException("Zip entries are read only");
+	}
+}
\ No newline at end of file
@@ -0,0 +1,212 @@
+/*
+* Copyright (c) 2017, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+*
+* WSO2 Inc. licenses this file to you under the Apache License,
+* Version 2.0 (the "License"); you may not use this file except
+* in compliance with the License.
+* You may obtain a copy of the License at
+*
+*http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+
+package org.wso2.carbon.connector.util;
+
+import org.apache.commons.compress.archivers.ArchiveEntry;
+import org.apache.commons.compress.archivers.ArchiveInputStream;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.vfs2.FileObject;
+import org.apache.commons.vfs2.FileSystemOptions;
+import org.apache.commons.vfs2.RandomAccessContent;
+import org.apache.commons.vfs2.Selectors;
+import org.apache.commons.vfs2.impl.StandardFileSystemManager;
+import org.apache.commons.vfs2.util.RandomAccessMode;
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.Deflater;
+
+/**
+ * Zip64 tests on synthetic archives in the local file system. The large sources are sparse files, so only the
+ * archives that store them take real disk space.
+ */
+public class ZipArchiveZip64Test {
+
+    private static final long FOUR_GB = 0x100000000L;
+    private static final long LARGE_FILE_SIZE = FOUR_GB + 1024 * 1024;
+    private static final int ENTRY_COUNT = 70000;
+    private File workDir;
+    private StandardFileSystemManager manager;
+
+    /**
+     * Set up the working folder.
+     */
+    @BeforeClass(alwaysRun = true)
+    public void setUp() throws Exception {
+        workDir = Files.createTempDirectory("file-connector-zip64").toFile();
+        manager = FileConnectorUtils.getManager();
+    }
+
+    /**
+     * Remove the working folder.
+     */
+    @AfterClass(alwaysRun = true)
+    public void tearDown() throws Exception {
+        manager.close();
+        FileUtils.deleteDirectory(workDir);
+    }
+
+    /**
+     * Archive with more entries than the end of central directory record can count, appended to afterwards.
+     */
+    @Test(groups = {"wso2.esb"}, description = "Zip64 archive with more than 65,535 entries")
+    public void testArchiveWithManyEntries() throws Exception {
+        File source = new File(workDir, "many");
+        Assert.assertTrue(source.mkdirs());
+        for (int i = 0; i < ENTRY_COUNT; i++) {
+            FileUtils.writeStringToFile(new File(source, "entry-" + i + ".txt"), String.valueOf(i),
+                    StandardCharsets.UTF_8);
+        }
+        File archive = new File(workDir, "many.zip");
+        writeArchive(source, archive, Deflater.DEFAULT_COMPRESSION, Collections.<String>emptySet());
+        Assert.assertEquals(readDirectory(archive).getEntries().size(), ENTRY_COUNT);
+        Map<String, Long> entries = readStreamed(archive);
+        Assert.assertEquals(entries.size(), ENTRY_COUNT);
+        Assert.assertEquals(entries.get("entry-12345.txt"), Long.valueOf(5));
+
+        File extra = new File(workDir, "extra");
+        FileUtils.writeStringToFile(new File(extra, "appended.txt"), "appended", StandardCharsets.UTF_8);
+        appendToArchive(extra, archive);
+        Assert.assertEquals(readDirectory(archive).getEntries().size(), ENTRY_COUNT + 1);
+        entries = readStreamed(archive);
+        Assert.assertEquals(entries.size(), ENTRY_COUNT + 1);
+        Assert.assertEquals(entries.get("appended.txt"), Long.valueOf(8));
+    }
+
+    /**
+     * Deflated entry larger than 4 GB, in an archive that stays small.
+     */
+    @Test(groups = {"wso2.esb"}, description = "Zip64 archive with an entry larger than 4 GB")
+    public void testArchiveWithLargeEntry() throws Exception {
+        File source = createSparseSource("large-entry", "large.dat");
+        File archive = new File(workDir, "large-entry.zip");
+        writeArchive(source, archive, Deflater.BEST_SPEED, Collections.<String>emptySet());
+        Assert.assertTrue(archive.length() < FOUR_GB);
+        ZipCentralDirectory.Entry entry = readDirectory(archive).getEntry("large.dat");
+        Assert.assertNotNull(entry);
+        Assert.assertEquals(entry.getSize(), LARGE_FILE_SIZE);
+        Assert.assertEquals(readStreamed(archive).get("large.dat"), Long.valueOf(LARGE_FILE_SIZE));
+    }
+
+    /**
+     * Archive larger than 4 GB, so the entries appended to it start beyond the 32 bit offsets.
+     */
+    @Test(groups = {"wso2.esb"}, description = "Zip64 archive larger than 4 GB")
+    public void testLargeArchive() throws Exception {
+        File source = createSparseSource("large-archive", "large.bin");
+        File archive = new File(workDir, "large-archive.zip");
+        writeArchive(source, archive, Deflater.DEFAULT_COMPRESSION, Collections.singleton("bin"));
+        Assert.assertTrue(archive.length() > FOUR_GB);
+        Assert.assertEquals(readDirectory(archive).getEntry("large.bin").getCompressedSize(), LARGE_FILE_SIZE);
+
+        File extra = new File(workDir, "large-extra");
+        FileUtils.writeStringToFile(new File(extra, "appended.txt"), "appended", StandardCharsets.UTF_8);
+        appendToArchive(extra, archive);
+        ZipCentralDirectory directory = readDirectory(archive);
+        Assert.assertEquals(directory.getEntries().size(), 2);
+        Assert.assertTrue(directory.getEntry("appended.txt").getLocalHeaderOffset() > FOUR_GB);
+        Assert.assertTrue(directory.getOffset() > FOUR_GB);
+        Map<String, Long> entries = readStreamed(archive);
+        Assert.assertEquals(entries.get("large.bin"), Long.valueOf(LARGE_FILE_SIZE));
+        Assert.assertEquals(entries.get("appended.txt"), Long.valueOf(8));
+    }
+
+    private File createSparseSource(String folder, String name) throws IOException {
+        File source = new File(workDir, folder);
+        Assert.assertTrue(source.mkdirs());
+        RandomAccessFile file = new RandomAccessFile(new File(source, name), "rw");
+        try {
+            file.setLength(LARGE_FILE_SIZE);
+        } finally {
+            file.close();
+        }
+        return source;
+    }
+
+    private void writeArchive(File source, File archive, int level, Set<String> storeExtensions) throws IOException {
+        FileObject root = manager.toFileObject(source);
+        FileObject destination = manager.toFileObject(archive);
+        List<FileObject> files = Arrays.asList(root.findFiles(Selectors.EXCLUDE_SELF));
+        ZipArchiveBuilder builder = new ZipArchiveBuilder(new FileSystemOptions(), 1, level);
+        builder.setStorePolicy(storeExtensions, false);
+        // A plain stream, like the remote destinations, so the sizes can not be patched afterwards
+        ZipArchiveOutputStream zos = new ZipArchiveOutputStream(destination.getContent().getOutputStream());
+        try {
+            builder.write(root, files, zos);
+        } finally {
+            zos.close();
+            destination.close();
+        }
+    }
+
+    private void appendToArchive(File source, File archive) throws IOException {
+        FileObject root = manager.toFileObject(source);
+        List<FileObject> files = Arrays.asList(root.findFiles(Selectors.EXCLUDE_SELF));
+        new ZipAppender(Deflater.DEFAULT_COMPRESSION).append(manager.toFileObject(archive), root, files);
+    }
+
+    private ZipCentralDirectory readDirectory(File archive) throws IOException {
+        FileObject file = manager.toFileObject(archive);
+        RandomAccessContent content = file.getContent().getRandomAccessContent(RandomAccessMode.READ);
+        try {
+            return ZipCentralDirectory.read(content);
+        } finally {
+            content.close();
+            file.close();
+        }
+    }
+
+    /**
+     * Read the archive as a stream, the way unzip and listFileZip do.
+     *
+     * @param archive The archive.
+     * @return The number of bytes read for each entry.
+     */
+    private Map<String, Long> readStreamed(File archive) throws IOException {
+        Map<String, Long> entries = new HashMap<String, Long>();
+        InputStream in = new FileInputStream(archive);
+        ArchiveInputStream archiveIn = ArchiveStreams.openInput(in, FileConstants.FORMAT_ZIP);
+        try {
+            ArchiveEntry entry;
+            while ((entry = archiveIn.getNextEntry()) != null) {
+                entries.put(entry.getName(), IOUtils.skip(archiveIn, Long.MAX_VALUE));
+            }
+        } finally {
+            archiveIn.close();
+        }
+        return entries;
+    }
+}
\ No newline at end of file